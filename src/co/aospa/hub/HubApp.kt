@@ -16,12 +16,14 @@
 package co.aospa.hub
 
 import android.app.Application
+import co.aospa.hub.client.HttpTransport
 
 class HubApp: Application() {
 
     override fun onCreate() {
         super.onCreate()
         app = this
+        HttpTransport.init(this)
     }
 
     companion object {
@@ -33,7 +33,6 @@ import co.aospa.hub.controllers.NotificationController;
 import co.aospa.hub.controllers.UpdateController;
 import co.aospa.hub.util.App;
 import co.aospa.hub.util.Constants;
-import co.aospa.hub.util.PreferenceHelper;
 import co.aospa.hub.util.Version;
 
 public class UpdateReceiver extends BroadcastReceiver implements ClientConnector.ClientListener {
@@ -57,8 +56,7 @@ public class UpdateReceiver extends BroadcastReceiver implements ClientConnector
             if (wasUpdatePreviouslyApplied(context)) {
                 Log.d(TAG, "Showing notification for previously applied update");
                 // Reset the update status now that the update is applied
-                PreferenceHelper preferenceHelper = new PreferenceHelper(context);
-                preferenceHelper.saveIntValue(Constants.KEY_UPDATE_STATUS, -1);
+                UpdateController.get(context).setUpdateStatus(-1);
                 NotificationController notificationController = new NotificationController(context);
                 notificationController.showNotification(
                         NotificationController.NotificationType.COMPLETED, null);
@@ -115,13 +113,12 @@ public class UpdateReceiver extends BroadcastReceiver implements ClientConnector
     }
 
     private boolean wasUpdatePreviouslyApplied(Context context) {
-        PreferenceHelper preferenceHelper = new PreferenceHelper(context);
-        return (preferenceHelper.getIntValueByKey(Constants.KEY_UPDATE_STATUS)
-                == UpdateController.StatusType.REBOOT);
+        return UpdateController.get(context).getUpdateStatus()
+                == UpdateController.StatusType.REBOOT;
     }
 
     @Override
-    public void onClientStatusSuccess(File data, int task) {
+    public void onClientStatusSuccess(File data, int task, boolean modified) {
         UpdateComponent component = (UpdateComponent) ComponentBuilder.buildComponent(data, task);
         Version version = new Version(component);
         if (component != null && version.isUpdateAvailable()) {
@@ -136,7 +133,7 @@ public class UpdateReceiver extends BroadcastReceiver implements ClientConnector
     }
 
     @Override
-    public void onClientStatusFailure() {
+    public void onClientStatusFailure(int task) {
         scheduleRequestTask(mContext, true);
     }
 }
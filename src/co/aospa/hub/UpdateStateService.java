@@ -23,10 +23,14 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import co.aospa.hub.components.ComponentBuilder;
 import co.aospa.hub.controllers.NotificationController;
 import co.aospa.hub.controllers.UpdateStateController;
 import co.aospa.hub.util.Constants;
+import co.aospa.hub.util.HubExecutors;
 
 public class UpdateStateService extends Service {
 
@@ -47,6 +51,11 @@ public class UpdateStateService extends Service {
         return mBinder;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        HubExecutors.dump(pw);
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "Start service for intent " + intent);
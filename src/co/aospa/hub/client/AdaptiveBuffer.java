@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Download buffer resized from the measured throughput, so that it holds about
+ * {@link #TARGET_FILL_MS} worth of data. Fast links get fewer, larger reads and
+ * writes while slow links still flush and report progress often.
+ */
+class AdaptiveBuffer {
+
+    static final int MIN_SIZE = 16 * 1024;
+    static final int MAX_SIZE = 1024 * 1024;
+
+    private static final long TARGET_FILL_MS = 100;
+
+    private ByteBuffer mBuffer;
+    private volatile long mSyscalls;
+
+    AdaptiveBuffer(int initialSize) {
+        mBuffer = ByteBuffer.allocate(initialSize);
+    }
+
+    ByteBuffer get() {
+        return mBuffer;
+    }
+
+    int size() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * Count a read from the connection or a write to the file. Only the thread
+     * that owns the buffer may call this.
+     */
+    void countSyscall() {
+        //noinspection NonAtomicOperationOnVolatileField
+        mSyscalls++;
+    }
+
+    long getSyscalls() {
+        return mSyscalls;
+    }
+
+    /**
+     * Resize the buffer for the given speed in bytes per second. This has no
+     * effect unless the buffer is empty.
+     */
+    void adapt(long speed) {
+        if (speed <= 0 || mBuffer.position() != 0) {
+            return;
+        }
+        long wanted = Math.max(1, speed * TARGET_FILL_MS / 1000);
+        int target = (int) Math.max(MIN_SIZE, Math.min(MAX_SIZE, Long.highestOneBit(wanted)));
+        int size = mBuffer.capacity();
+        // Shrink lazily so that a short dip doesn't reallocate the buffer back and forth
+        if (target > size || target <= size / 4) {
+            mBuffer = ByteBuffer.allocate(target);
+        }
+    }
+}
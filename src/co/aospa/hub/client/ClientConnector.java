@@ -16,26 +16,25 @@
 package co.aospa.hub.client;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.SystemProperties;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import co.aospa.hub.components.ComponentBuilder;
-import co.aospa.hub.util.Constants;
+import co.aospa.hub.util.BuildInfo;
 
-public class ClientConnector implements DownloadClient.DownloadCallback {
+public class ClientConnector {
 
     private static final String TAG = "ClientConnector";
 
-    public static final int COMPONENT_DELAY_TIME_MILLIS = 4000;
-    public static final String TARGET_DEVICE = SystemProperties.get(Constants.PROP_DEVICE);
-
     private final Context mContext;
-    private DownloadClient mClient;
+    private final Map<Integer, DownloadClient> mClients = new HashMap<>();
     private final List<ClientListener> mListeners = new ArrayList<>();
 
     public @interface TaskType {
@@ -48,32 +47,58 @@ public class ClientConnector implements DownloadClient.DownloadCallback {
         mContext = context;
     }
 
+    /**
+     * Fetch a component from the server. Components are fetched concurrently, each
+     * on its own client, and a component that is already being fetched isn't
+     * requested again.
+     */
     public void initComponent(String component) {
-        final Handler handler = new Handler();
-        handler.postDelayed(() -> {
-            File componentFile = Server.getComponentFile(mContext, component);
-            if (componentFile.exists()) {
-                //noinspection ResultOfMethodCallIgnored
-                componentFile.delete();
+        final int task = ComponentBuilder.getTaskForComponent(component);
+        // The previous copy is kept so the server can answer that it didn't change
+        File data = Server.getComponentFile(mContext, component);
+        String url = getComponentUrl(component);
+        DownloadClient client;
+        // Building a client doesn't connect yet, so it is done under the lock to
+        // reserve the task for this fetch
+        synchronized (mClients) {
+            if (mClients.containsKey(task)) {
+                Log.d(TAG, "Already getting " + component);
+                return;
             }
-            File data = new File(componentFile.getAbsolutePath());
-            final boolean updateComponent = component.contentEquals(ComponentBuilder.COMPONENT_UPDATES);
-            String url = updateComponent ? Server.getUrl(mContext) + component + "/" + TARGET_DEVICE
-                    : Server.getUrl(mContext) + component;
-            Log.d(TAG, "Getting " + component + " from " + url + " to " + data.getName());
             try {
-                mClient = new DownloadClient.Builder()
+                client = new DownloadClient.Builder()
                         .setUrl(url)
                         .setDestination(data)
-                        .setDownloadCallback(ClientConnector.this)
-                        .setTask(ComponentBuilder.getTaskForComponent(component))
+                        .setDownloadCallback(new ComponentCallback(task))
+                        .setTask(task)
+                        .setUseValidators(true)
+                        .setUseCompression(true)
                         .build();
             } catch (IOException exception) {
-                Log.d(TAG, "Could not build download client");
+                client = null;
             }
-            if (mClient != null) mClient.start();
+            if (client != null) {
+                mClients.put(task, client);
+            }
+        }
+        if (client == null) {
+            Log.d(TAG, "Could not build download client");
+            notifyClientStatusFailure(task);
+            return;
+        }
+        Log.d(TAG, "Getting " + component + " from " + url + " to " + data.getName());
+        client.start();
+    }
 
-        }, COMPONENT_DELAY_TIME_MILLIS);
+    /**
+     * Get the URL of a component. The updates are listed per device.
+     */
+    @VisibleForTesting
+    String getComponentUrl(String component) {
+        final boolean updateComponent = component.contentEquals(ComponentBuilder.COMPONENT_UPDATES);
+        return updateComponent ? Server.getUrl(mContext) + component + "/"
+                + BuildInfo.get().getDevice()
+                : Server.getUrl(mContext) + component;
     }
 
     public void addClientStatusListener(ClientListener listener) {
@@ -84,35 +109,55 @@ public class ClientConnector implements DownloadClient.DownloadCallback {
         mListeners.remove(listener);
     }
 
-    private void notifyClientStatusSuccess(File destination, int task) {
+    private void notifyClientStatusSuccess(File destination, int task, boolean modified) {
         for (ClientListener listener : mListeners) {
-            listener.onClientStatusSuccess(destination, task);
+            listener.onClientStatusSuccess(destination, task, modified);
         }
     }
 
-    private void notifyClientStatusFailure() {
+    private void notifyClientStatusFailure(int task) {
         for (ClientListener listener : mListeners) {
-            listener.onClientStatusFailure();
+            listener.onClientStatusFailure(task);
         }
     }
 
-    @Override
-    public void onResponse(int statusCode, String url, DownloadClient.Headers headers) {
+    private class ComponentCallback implements DownloadClient.DownloadCallback {
+        private final int mTask;
 
-    }
+        private ComponentCallback(int task) {
+            mTask = task;
+        }
 
-    @Override
-    public void onSuccess(File destination, int task) {
-        notifyClientStatusSuccess(destination, task);
-    }
+        @Override
+        public void onResponse(int statusCode, String url, DownloadClient.Headers headers) {
+
+        }
+
+        @Override
+        public void onSuccess(File destination, int task) {
+            DownloadClient client;
+            synchronized (mClients) {
+                client = mClients.remove(mTask);
+            }
+            boolean modified = client == null || !client.isNotModified();
+            notifyClientStatusSuccess(destination, task, modified);
+        }
 
-    @Override
-    public void onFailure(boolean cancelled) {
-        notifyClientStatusFailure();
+        @Override
+        public void onFailure(boolean cancelled) {
+            synchronized (mClients) {
+                mClients.remove(mTask);
+            }
+            notifyClientStatusFailure(mTask);
+        }
     }
 
     public interface ClientListener {
-        void onClientStatusSuccess(File destination, int task);
-        void onClientStatusFailure();
+        /**
+         * @param modified false if the server answered that the component didn't
+         *                 change, and the previous copy was kept
+         */
+        void onClientStatusSuccess(File destination, int task, boolean modified);
+        void onClientStatusFailure(int task);
     }
 }
@@ -32,6 +32,12 @@ public interface DownloadClient {
 
     interface ProgressListener {
         void update(long bytesRead, long contentLength, long speed, long eta, boolean done);
+
+        /**
+         * Report how the data is being moved: the size of the read buffer currently
+         * in use and how many reads and writes per second it takes.
+         */
+        void updateTransferStats(int bufferSize, long syscallRate);
     }
 
     interface Headers {
@@ -58,6 +64,22 @@ public interface DownloadClient {
      */
     void cancel();
 
+    /**
+     * Get the SHA-256 of the downloaded file as a lowercase hex string. This is only
+     * available once the download succeeded and if it was requested with
+     * Builder.setComputeDigest().
+     *
+     * @return the digest, or null if it wasn't computed
+     */
+    String getDigest();
+
+    /**
+     * Whether the server replied that the file didn't change since it was last
+     * downloaded, in which case the existing destination was kept as is. This is
+     * only possible if the download was requested with Builder.setUseValidators().
+     */
+    boolean isNotModified();
+
     final class Builder {
         private String mUrl;
         private File mDestination;
@@ -65,6 +87,11 @@ public interface DownloadClient {
         private DownloadClient.ProgressListener mProgressListener;
         private boolean mUseDuplicateLinks;
         private int mTask;
+        private int mMaxConnections = 1;
+        private boolean mComputeDigest;
+        private RateLimiter mRateLimiter;
+        private boolean mUseValidators;
+        private boolean mUseCompression;
 
         public DownloadClient build() throws IOException {
             if (mUrl == null) {
@@ -74,8 +101,15 @@ public interface DownloadClient {
             } else if (mCallback == null) {
                 throw new IllegalStateException("No download callback defined");
             }
+            RateLimiter rateLimiter = mRateLimiter != null ? mRateLimiter : new RateLimiter();
+            if (mMaxConnections > 1) {
+                return new SegmentedDownloadClient(mUrl, mDestination, mProgressListener,
+                        mCallback, mUseDuplicateLinks, mTask, mComputeDigest, mMaxConnections,
+                        rateLimiter);
+            }
             return new HttpURLConnectionClient(mUrl, mDestination, mProgressListener, mCallback,
-                    mUseDuplicateLinks, mTask);
+                    mUseDuplicateLinks, mTask, mComputeDigest, rateLimiter, mUseValidators,
+                    mUseCompression);
         }
 
         public Builder setUrl(String url) {
@@ -107,5 +141,49 @@ public interface DownloadClient {
             mTask = task;
             return this;
         }
+
+        /**
+         * Allow the download to be split across up to the given number of connections.
+         * The segmented client is only used if the server answers with
+         * "Accept-Ranges: bytes", otherwise it falls back to a single connection.
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            mMaxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder setComputeDigest(boolean computeDigest) {
+            mComputeDigest = computeDigest;
+            return this;
+        }
+
+        /**
+         * Throttle the download with the given limiter. The same limiter can be
+         * shared by several downloads and its rate changed while they run.
+         */
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            mRateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * Store the ETag and Last-Modified of the downloaded file next to it, and make
+         * the next download of the same destination a conditional request. Only
+         * single-connection downloads support this.
+         */
+        public Builder setUseValidators(boolean useValidators) {
+            mUseValidators = useValidators;
+            return this;
+        }
+
+        /**
+         * Ask the server for a gzip compressed body and decompress it while writing
+         * it. Progress then counts compressed bytes, and a broken transfer can't be
+         * continued from another mirror. Only single-connection downloads support this.
+         */
+        public Builder setUseCompression(boolean useCompression) {
+            mUseCompression = useCompression;
+            return this;
+        }
     }
 }
\ No newline at end of file
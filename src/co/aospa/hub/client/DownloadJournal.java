@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Records which chunks of a download were committed to disk, along with their
+ * checksum, so an interrupted download can be resumed without trusting the
+ * length of the partial file.
+ *
+ * The journal lives next to the destination file and is append-only: a header
+ * followed by one record per committed chunk. A torn record at the end of the
+ * journal is ignored when loading it.
+ */
+public class DownloadJournal {
+
+    private static final String TAG = "DownloadJournal";
+
+    private static final String JOURNAL_EXT = ".journal";
+    private static final int MAGIC = 0x48554244; // "HUBD"
+    private static final int VERSION = 1;
+
+    static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final File mDestination;
+    private final File mJournalFile;
+    private final long mTotalBytes;
+    private final long[] mChecksums;
+    private final boolean[] mCommitted;
+    private final List<Integer> mPending = new ArrayList<>();
+    // Chunk of the last record of the journal, -1 if there is none
+    private int mLastChunk = -1;
+
+    private DownloadJournal(File destination, long totalBytes) {
+        mDestination = destination;
+        mJournalFile = getJournalFile(destination);
+        mTotalBytes = totalBytes;
+        int chunks = (int) ((totalBytes + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        mChecksums = new long[chunks];
+        mCommitted = new boolean[chunks];
+    }
+
+    public static File getJournalFile(File destination) {
+        return new File(destination.getAbsolutePath() + JOURNAL_EXT);
+    }
+
+    public static boolean exists(File destination) {
+        return destination.exists() && getJournalFile(destination).exists();
+    }
+
+    public static void delete(File destination) {
+        //noinspection ResultOfMethodCallIgnored
+        getJournalFile(destination).delete();
+    }
+
+    /**
+     * Create an empty journal for a download of the given size, replacing any
+     * previous one.
+     */
+    static DownloadJournal create(File destination, long totalBytes) throws IOException {
+        DownloadJournal journal = new DownloadJournal(destination, totalBytes);
+        journal.rewrite();
+        return journal;
+    }
+
+    /**
+     * Load the journal of the given destination.
+     *
+     * @return the journal, or null if there is none or it can't be read
+     */
+    static DownloadJournal load(File destination) {
+        if (!exists(destination)) {
+            return null;
+        }
+        File journalFile = getJournalFile(destination);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != CHUNK_SIZE) {
+                Log.e(TAG, "Ignoring journal with unknown format " + journalFile);
+                return null;
+            }
+            DownloadJournal journal = new DownloadJournal(destination, in.readLong());
+            try {
+                for (;;) {
+                    int chunk = in.readInt();
+                    long checksum = in.readLong();
+                    if (chunk < 0 || chunk >= journal.mCommitted.length) {
+                        Log.e(TAG, "Ignoring out of range chunk " + chunk);
+                        break;
+                    }
+                    journal.mChecksums[chunk] = checksum;
+                    journal.mCommitted[chunk] = true;
+                    journal.mLastChunk = chunk;
+                }
+            } catch (EOFException ignored) {
+                // End of the journal, or a torn last record
+            }
+            return journal;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read journal " + journalFile, e);
+            return null;
+        }
+    }
+
+    long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    int getChunkCount() {
+        return mCommitted.length;
+    }
+
+    static long getChunkStart(int chunk) {
+        return (long) chunk * CHUNK_SIZE;
+    }
+
+    long getChunkEnd(int chunk) {
+        return Math.min(getChunkStart(chunk + 1), mTotalBytes);
+    }
+
+    synchronized boolean isCommitted(int chunk) {
+        return mCommitted[chunk];
+    }
+
+    synchronized boolean isComplete() {
+        for (boolean committed : mCommitted) {
+            if (!committed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized long getCommittedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < mCommitted.length; i++) {
+            if (mCommitted[i]) {
+                bytes += getChunkEnd(i) - getChunkStart(i);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Mark a chunk as fully written. It is only recorded in the journal by the
+     * next {@link #flush(FileChannel)}, once its data is known to be on disk.
+     */
+    synchronized void markWritten(int chunk, long checksum) {
+        mChecksums[chunk] = checksum;
+        mPending.add(chunk);
+    }
+
+    /**
+     * Sync the written data of the destination, then append the pending chunks
+     * to the journal.
+     */
+    synchronized void flush(FileChannel channel) throws IOException {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        channel.force(false);
+        try (FileOutputStream fos = new FileOutputStream(mJournalFile, true);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            for (int chunk : mPending) {
+                out.writeInt(chunk);
+                out.writeLong(mChecksums[chunk]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        for (int chunk : mPending) {
+            mCommitted[chunk] = true;
+        }
+        mPending.clear();
+    }
+
+    /**
+     * Drop the committed chunks that can't be trusted anymore: the ones past the
+     * end of the destination, and the last recorded one if its checksum doesn't
+     * match. The data of a chunk is synced before its record is written, so only
+     * the chunk at the tail of the journal is read back.
+     *
+     * @return the number of chunks that were dropped
+     */
+    synchronized int verify() throws IOException {
+        int dropped = 0;
+        try (FileChannel channel = FileChannel.open(mDestination.toPath(),
+                StandardOpenOption.READ)) {
+            final long size = channel.size();
+            for (int i = 0; i < mCommitted.length; i++) {
+                if (mCommitted[i] && getChunkEnd(i) > size) {
+                    Log.d(TAG, "Chunk " + i + " of " + mDestination.getName() + " is missing");
+                    mCommitted[i] = false;
+                    dropped++;
+                }
+            }
+            if (mLastChunk != -1 && mCommitted[mLastChunk] && checksum(channel,
+                    ByteBuffer.allocate(64 * 1024), mLastChunk) != mChecksums[mLastChunk]) {
+                Log.d(TAG, "Chunk " + mLastChunk + " of " + mDestination.getName()
+                        + " is corrupt");
+                mCommitted[mLastChunk] = false;
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            rewrite();
+        }
+        return dropped;
+    }
+
+    private long checksum(FileChannel channel, ByteBuffer buffer, int chunk)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        long position = getChunkStart(chunk);
+        long end = getChunkEnd(chunk);
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int count = channel.read(buffer, position);
+            if (count <= 0) {
+                // The file is shorter than the journal claims
+                return -1;
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += count;
+        }
+        return crc.getValue();
+    }
+
+    private void rewrite() throws IOException {
+        File tmp = new File(mJournalFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(CHUNK_SIZE);
+            out.writeLong(mTotalBytes);
+            for (int i = 0; i < mCommitted.length; i++) {
+                if (mCommitted[i]) {
+                    out.writeInt(i);
+                    out.writeLong(mChecksums[i]);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(mJournalFile)) {
+            throw new IOException("Could not replace " + mJournalFile);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import java.util.concurrent.Executor;
+
+import co.aospa.hub.util.HubExecutors;
+
+/**
+ * Work of a download client that runs on an executor and can be interrupted
+ * like a thread. The pool thread is only interrupted while it runs this task,
+ * and a task interrupted before it started sees it as soon as it starts.
+ */
+abstract class DownloadTask implements Runnable {
+
+    private final Object mLock = new Object();
+    private Thread mThread;
+    private volatile boolean mInterrupted;
+
+    void start() {
+        start(HubExecutors.io());
+    }
+
+    void start(Executor executor) {
+        executor.execute(this);
+    }
+
+    void interrupt() {
+        synchronized (mLock) {
+            mInterrupted = true;
+            if (mThread != null) {
+                mThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Mark the task as interrupted without interrupting its thread. Tasks doing
+     * I/O on a channel shared with other tasks are stopped this way, since an
+     * interrupt would close the channel for all of them.
+     */
+    void markInterrupted() {
+        mInterrupted = true;
+    }
+
+    boolean isInterrupted() {
+        return mInterrupted;
+    }
+
+    @Override
+    public final void run() {
+        synchronized (mLock) {
+            mThread = Thread.currentThread();
+            if (mInterrupted) {
+                mThread.interrupt();
+            }
+        }
+        try {
+            execute();
+        } finally {
+            synchronized (mLock) {
+                mThread = null;
+            }
+            // Don't leave the interrupt to the next task of the pool thread
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+        }
+    }
+
+    abstract void execute();
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Opens the connections of every download client. The platform keeps idle
+ * keep-alive connections in a pool keyed by host and socket factory, so all
+ * connections share one socket factory backed by a persistent TLS session
+ * cache, and are released by closing their body instead of disconnecting.
+ */
+public class HttpTransport {
+
+    private static final String TAG = "HttpTransport";
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 10000;
+    // Enough idle connections for a segmented download and its mirror probes
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static SSLSocketFactory sSocketFactory;
+
+    /**
+     * Set up the shared transport. This must be called before the first
+     * connection is opened for the pool settings to apply.
+     */
+    // SSLCertificateSocketFactory is the only factory taking a persistent SSLSessionCache
+    @SuppressWarnings("deprecation")
+    public static synchronized void init(Context context) {
+        if (sSocketFactory != null) {
+            return;
+        }
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        sSocketFactory = SSLCertificateSocketFactory.getDefault(HANDSHAKE_TIMEOUT_MS,
+                new SSLSessionCache(context.getApplicationContext()));
+    }
+
+    static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        SSLSocketFactory socketFactory;
+        synchronized (HttpTransport.class) {
+            socketFactory = sSocketFactory;
+        }
+        if (socketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+        }
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        return connection;
+    }
+
+    /**
+     * Hand a connection whose response was received back to the pool. Only use
+     * disconnect() for connections that failed, it closes the socket.
+     */
+    static void release(HttpURLConnection connection) {
+        try {
+            InputStream inputStream = connection.getResponseCode() < 400
+                    ? connection.getInputStream() : connection.getErrorStream();
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Could not release connection to " + connection.getURL(), e);
+            connection.disconnect();
+        }
+    }
+}
@@ -19,23 +19,25 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 public class HttpURLConnectionClient implements DownloadClient {
 
     private final static String TAG = "HttpURLConnectionClient";
 
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
     private HttpURLConnection mClient;
 
     private final File mDestination;
@@ -43,8 +45,15 @@ public class HttpURLConnectionClient implements DownloadClient {
     private final DownloadClient.DownloadCallback mCallback;
     private final boolean mUseDuplicateLinks;
     private final int mTask;
+    private final boolean mComputeDigest;
+    private final RateLimiter mRateLimiter;
+    private final boolean mUseValidators;
+    private final boolean mUseCompression;
 
-    private DownloadThread mDownloadThread;
+    private Download mDownload;
+    private MirrorList mMirrors;
+    private volatile String mDigest;
+    private volatile boolean mNotModified;
 
     public class Headers implements DownloadClient.Headers {
         @Override
@@ -62,18 +71,26 @@ public class HttpURLConnectionClient implements DownloadClient {
                             DownloadClient.ProgressListener progressListener,
                             DownloadClient.DownloadCallback callback,
                             boolean useDuplicateLinks,
-                            int task) throws IOException {
-        mClient = (HttpURLConnection) new URL(url).openConnection();
+                            int task,
+                            boolean computeDigest,
+                            RateLimiter rateLimiter,
+                            boolean useValidators,
+                            boolean useCompression) throws IOException {
+        mClient = HttpTransport.open(new URL(url));
         mDestination = destination;
         mProgressListener = progressListener;
         mCallback = callback;
         mUseDuplicateLinks = useDuplicateLinks;
         mTask = task;
+        mComputeDigest = computeDigest;
+        mRateLimiter = rateLimiter;
+        mUseValidators = useValidators;
+        mUseCompression = useCompression;
     }
 
     @Override
     public void start() {
-        if (mDownloadThread != null) {
+        if (mDownload != null) {
             Log.e(TAG, "Already downloading");
             return;
         }
@@ -82,7 +99,7 @@ public class HttpURLConnectionClient implements DownloadClient {
 
     @Override
     public void resume() {
-        if (mDownloadThread != null) {
+        if (mDownload != null) {
             Log.e(TAG, "Already downloading");
             return;
         }
@@ -91,12 +108,22 @@ public class HttpURLConnectionClient implements DownloadClient {
 
     @Override
     public void cancel() {
-        if (mDownloadThread == null) {
+        if (mDownload == null) {
             Log.e(TAG, "Not downloading");
             return;
         }
-        mDownloadThread.interrupt();
-        mDownloadThread = null;
+        mDownload.interrupt();
+        mDownload = null;
+    }
+
+    @Override
+    public String getDigest() {
+        return mDigest;
+    }
+
+    @Override
+    public boolean isNotModified() {
+        return mNotModified;
     }
 
     private void downloadFileResumeInternal() {
@@ -110,153 +137,283 @@ public class HttpURLConnectionClient implements DownloadClient {
     }
 
     private void downloadFileInternalCommon(boolean resume) {
-        if (mDownloadThread != null) {
+        if (mDownload != null) {
             Log.wtf(TAG, "Already downloading");
             return;
         }
 
-        mDownloadThread = new DownloadThread(resume);
-        mDownloadThread.start();
+        mDownload = new Download(resume);
+        mDownload.start();
     }
 
-    private static boolean isSuccessCode(int statusCode) {
+    static boolean isSuccessCode(int statusCode) {
         return (statusCode / 100) != 2;
     }
 
-    private static boolean isRedirectCode(int statusCode) {
+    static boolean isRedirectCode(int statusCode) {
         return (statusCode / 100) == 3;
     }
 
-    private static boolean isPartialContentCode(int statusCode) {
+    static boolean isPartialContentCode(int statusCode) {
         return statusCode == 206;
     }
 
-    private class DownloadThread extends Thread {
+    static boolean isNotModifiedCode(int statusCode) {
+        return statusCode == 304;
+    }
+
+    /**
+     * Counts the bytes read from the connection, before they are decompressed.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            mCount += count;
+            return count;
+        }
+    }
+
+    private class Download extends DownloadTask {
 
         private long mTotalBytes = 0;
         private long mTotalBytesRead = 0;
+        // Set while the response body is compressed, progress then follows the
+        // compressed bytes since that is what the content length refers to
+        private CountingInputStream mCompressedStream;
 
         private long mCurSampleBytes = 0;
         private long mLastMillis = 0;
         private long mSpeed = -1;
         private long mEta = -1;
+        private long mLastReportMillis = 0;
+        private long mCurSampleSyscalls = 0;
+        private long mSyscallRate = 0;
+
+        private final AdaptiveBuffer mBuffer = new AdaptiveBuffer(INITIAL_BUFFER_SIZE);
 
         private final boolean mResume;
 
-        private DownloadThread(boolean resume) {
+        private Download(boolean resume) {
             mResume = resume;
         }
 
         private void calculateSpeed() {
             final long millis = SystemClock.elapsedRealtime();
             final long delta = millis - mLastMillis;
-            if (delta > 500) {
-                final long curSpeed = ((mTotalBytesRead - mCurSampleBytes) * 1000) / delta;
+            if (delta >= PROGRESS_INTERVAL_MS) {
+                final long transferredBytes = getTransferredBytes();
+                final long curSpeed = ((transferredBytes - mCurSampleBytes) * 1000) / delta;
                 if (mSpeed == -1) {
                     mSpeed = curSpeed;
                 } else {
                     mSpeed = ((mSpeed * 3) + curSpeed) / 4;
                 }
 
+                final long syscalls = mBuffer.getSyscalls();
+                mSyscallRate = ((syscalls - mCurSampleSyscalls) * 1000) / delta;
+
                 mLastMillis = millis;
-                mCurSampleBytes = mTotalBytesRead;
+                mCurSampleBytes = transferredBytes;
+                mCurSampleSyscalls = syscalls;
             }
         }
 
         private void calculateEta() {
             if (mSpeed > 0) {
-                mEta = (mTotalBytes - mTotalBytesRead) / mSpeed;
+                mEta = (mTotalBytes - getTransferredBytes()) / mSpeed;
+            }
+        }
+
+        private long getTransferredBytes() {
+            return mCompressedStream != null ? mCompressedStream.mCount : mTotalBytesRead;
+        }
+
+        private InputStream openBody() throws IOException {
+            InputStream inputStream = mClient.getInputStream();
+            if ("gzip".equalsIgnoreCase(mClient.getContentEncoding())) {
+                mCompressedStream = new CountingInputStream(inputStream);
+                return new GZIPInputStream(mCompressedStream, INITIAL_BUFFER_SIZE);
+            }
+            mCompressedStream = null;
+            return inputStream;
+        }
+
+        private void write(FileChannel channel, ByteBuffer buffer) throws WriteException {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                    mBuffer.countSyscall();
+                }
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+            buffer.clear();
+        }
+
+        private void reportProgress(boolean done) {
+            if (mProgressListener == null) {
+                return;
+            }
+            final long millis = SystemClock.elapsedRealtime();
+            if (done || millis - mLastReportMillis >= PROGRESS_INTERVAL_MS) {
+                calculateSpeed();
+                calculateEta();
+                mProgressListener.update(getTransferredBytes(), mTotalBytes, mSpeed, mEta, done);
+                mProgressListener.updateTransferStats(mBuffer.size(), mSyscallRate);
+                mLastReportMillis = millis;
             }
         }
 
         private void changeClientUrl(URL newUrl) throws IOException {
             String range = mClient.getRequestProperty("Range");
             mClient.disconnect();
-            mClient = (HttpURLConnection) newUrl.openConnection();
+            mClient = HttpTransport.open(newUrl);
+            mClient.setReadTimeout(StallDetector.READ_TIMEOUT_MS);
             if (range != null) {
                 mClient.setRequestProperty("Range", range);
             }
         }
 
-        private void handleDuplicateLinks() throws IOException {
-            String protocol = mClient.getURL().getProtocol();
-
-            class DuplicateLink {
-                private final String mUrl;
-                private final int mPriority;
-                private DuplicateLink(String url, int priority) {
-                    mUrl = url;
-                    mPriority = priority;
+        /**
+         * Continue the download from the next mirror, starting at the first byte
+         * that didn't make it to the buffer yet.
+         */
+        private void failover(IOException error) throws IOException {
+            URL failed = mMirrors.current();
+            for (;;) {
+                URL url = mMirrors.failover(failed);
+                if (url == null) {
+                    throw error;
+                }
+                Log.e(TAG, "Lost " + failed + ", continuing from " + url + " at "
+                        + mTotalBytesRead, error);
+                try {
+                    changeClientUrl(url);
+                    mClient.setRequestProperty("Range", "bytes=" + mTotalBytesRead + "-");
+                    mClient.setConnectTimeout(5000);
+                    mClient.connect();
+                    if (!isPartialContentCode(mClient.getResponseCode())) {
+                        throw new IOException("Server replied with " + mClient.getResponseCode());
+                    }
+                    return;
+                } catch (IOException e) {
+                    error = e;
+                    failed = url;
                 }
             }
+        }
 
-            PriorityQueue<DuplicateLink> duplicates = null;
-
-            for (Map.Entry<String, List<String>> entry : mClient.getHeaderFields().entrySet()) {
-                if ("Link".equalsIgnoreCase((entry.getKey()))) {
-                    duplicates = new PriorityQueue<>(entry.getValue().size(),
-                            Comparator.comparingInt(d -> d.mPriority));
-
-                    // https://tools.ietf.org/html/rfc6249
-                    // https://tools.ietf.org/html/rfc5988#section-5
-                    String regex = "(?i)<(.+)>\\s*;\\s*rel=duplicate(?:.*pri=([0-9]+).*|.*)?";
-                    Pattern pattern = Pattern.compile(regex);
-                    for (String field : entry.getValue()) {
-                        Matcher matcher = pattern.matcher(field);
-                        if (matcher.matches()) {
-                            String url = matcher.group(1);
-                            String pri = matcher.group(2);
-                            int priority = pri != null ? Integer.parseInt(pri) : 999999;
-                            duplicates.add(new DuplicateLink(url, priority));
-                            Log.d(TAG, "Adding duplicate link " + url);
-                        } else {
-                            Log.d(TAG, "Ignoring link " + field);
-                        }
-                    }
+        private void transfer(InputStream inputStream, FileChannel channel,
+                              StreamingDigest digest, StallDetector stallDetector)
+                throws IOException {
+            // The connection only exposes a stream, so fill a large buffer from
+            // it and hand the file one write per buffer rather than per read
+            ByteBuffer buffer = mBuffer.get();
+            int count;
+            while (!isInterrupted() && (count = inputStream.read(buffer.array(),
+                    buffer.position(), buffer.remaining())) > 0) {
+                mBuffer.countSyscall();
+                stallDetector.onRead(count, mRateLimiter.acquire(count));
+                if (digest != null) {
+                    digest.update(buffer.array(), buffer.position(), count);
+                }
+                buffer.position(buffer.position() + count);
+                mTotalBytesRead += count;
+                if (!buffer.hasRemaining()) {
+                    write(channel, buffer);
+                    reportProgress(false);
+                    mBuffer.adapt(mSpeed);
+                    buffer = mBuffer.get();
                 }
             }
+            write(channel, buffer);
+            if (!isInterrupted() && getTransferredBytes() < mTotalBytes) {
+                throw new IOException("Connection closed at " + getTransferredBytes()
+                        + ", expected " + mTotalBytes);
+            }
+        }
 
-            String newUrl = mClient.getHeaderField("Location");
-            for (;;) {
+        private void handleDuplicateLinks() throws IOException {
+            List<URL> mirrors = MirrorSelector.rank(MirrorSelector.getMirrors(mClient));
+            IOException error = new IOException("No mirror available");
+            for (int i = 0; i < mirrors.size(); i++) {
+                URL url = mirrors.get(i);
                 try {
-                    URL url = new URL(newUrl);
-                    if (!url.getProtocol().equals(protocol)) {
-                        // If we hadn't handled duplicate links, we wouldn't have
-                        // used this url.
-                        throw new IOException("Protocol changes are not allowed");
-                    }
-                    Log.d(TAG, "Downloading from " + newUrl);
+                    Log.d(TAG, "Downloading from " + url);
                     changeClientUrl(url);
                     mClient.setConnectTimeout(5000);
                     mClient.connect();
                     if (isSuccessCode(mClient.getResponseCode())) {
                         throw new IOException("Server replied with " + mClient.getResponseCode());
                     }
+                    // Keep the remaining mirrors to fail over to
+                    mMirrors = new MirrorList(mirrors.subList(i, mirrors.size()));
                     return;
                 } catch (IOException e) {
-                    if (duplicates != null && !duplicates.isEmpty()) {
-                        DuplicateLink link = duplicates.poll();
-                        duplicates.remove(link);
-                        assert link != null;
-                        newUrl = link.mUrl;
-                        Log.e(TAG, "Using duplicate link " + link.mUrl, e);
-                    } else {
-                        throw e;
-                    }
+                    Log.e(TAG, "Could not download from " + url, e);
+                    error = e;
                 }
             }
+            throw error;
         }
 
         @Override
-        public void run() {
+        void execute() {
             try {
                 mClient.setInstanceFollowRedirects(!mUseDuplicateLinks);
+                mClient.setReadTimeout(StallDetector.READ_TIMEOUT_MS);
+                if (mUseCompression && !mResume) {
+                    // Setting this ourselves turns off the transparent decompression of
+                    // the platform, which would hide the compressed content length
+                    mClient.setRequestProperty("Accept-Encoding", "gzip");
+                }
+                HttpValidators validators = mUseValidators && !mResume
+                        ? HttpValidators.load(mDestination) : null;
+                if (validators != null) {
+                    validators.apply(mClient);
+                }
                 mClient.connect();
                 int responseCode = mClient.getResponseCode();
 
+                if (validators != null && isNotModifiedCode(responseCode)) {
+                    Log.d(TAG, mDestination.getName() + " was not modified");
+                    HttpTransport.release(mClient);
+                    mNotModified = true;
+                    mCallback.onSuccess(mDestination, mTask);
+                    return;
+                }
+
                 if (mUseDuplicateLinks && isRedirectCode(responseCode)) {
                     handleDuplicateLinks();
                     responseCode = mClient.getResponseCode();
+                } else {
+                    mMirrors = new MirrorList(mClient.getURL());
                 }
 
                 mCallback.onResponse(responseCode, mClient.getURL().toString(), new Headers());
@@ -266,44 +423,67 @@ public class HttpURLConnectionClient implements DownloadClient {
                     Log.d(TAG, "The server fulfilled the partial content request");
                 } else if (mResume || isSuccessCode(responseCode)) {
                     Log.e(TAG, "The server replied with code " + responseCode);
+                    HttpTransport.release(mClient);
                     mCallback.onFailure(isInterrupted());
                     return;
                 }
 
-                try (
-                        InputStream inputStream = mClient.getInputStream();
-                        OutputStream outputStream = new FileOutputStream(mDestination, mResume)
-                ) {
-                    mTotalBytes = mClient.getContentLength() + mTotalBytesRead;
-                    byte[] b = new byte[8192];
-                    int count;
-                    while (!isInterrupted() && (count = inputStream.read(b)) > 0) {
-                        outputStream.write(b, 0, count);
-                        mTotalBytesRead += count;
-                        calculateSpeed();
-                        calculateEta();
-                        if (mProgressListener != null) {
-                            mProgressListener.update(mTotalBytesRead, mTotalBytes, mSpeed, mEta,
-                                    false);
+                HttpValidators newValidators = null;
+                if (mUseValidators) {
+                    newValidators = HttpValidators.from(mClient);
+                    HttpValidators.delete(mDestination);
+                }
+
+                StreamingDigest digest = null;
+                if (mComputeDigest) {
+                    digest = new StreamingDigest();
+                    if (mTotalBytesRead > 0) {
+                        try (FileChannel channel = FileChannel.open(mDestination.toPath(),
+                                StandardOpenOption.READ)) {
+                            digest.update(channel, 0, mTotalBytesRead);
                         }
                     }
-                    if (mProgressListener != null) {
-                        mProgressListener.update(mTotalBytesRead, mTotalBytes, mSpeed, mEta, true);
-                    }
+                }
 
-                    outputStream.flush();
+                try (FileChannel channel = FileChannel.open(mDestination.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        mResume ? StandardOpenOption.APPEND
+                                : StandardOpenOption.TRUNCATE_EXISTING)) {
+                    mTotalBytes = mClient.getContentLengthLong() + mTotalBytesRead;
+                    for (;;) {
+                        try (InputStream inputStream = openBody()) {
+                            transfer(inputStream, channel, digest, new StallDetector());
+                            break;
+                        } catch (WriteException e) {
+                            throw e;
+                        } catch (IOException e) {
+                            // Keep what was received before switching mirrors
+                            write(channel, mBuffer.get());
+                            // A compressed body can't be continued from a decoded offset
+                            if (isInterrupted() || mCompressedStream != null) {
+                                throw e;
+                            }
+                            failover(e);
+                        }
+                    }
+                    reportProgress(true);
 
                     if (isInterrupted()) {
                         mCallback.onFailure(true);
                     } else {
+                        if (digest != null) {
+                            mDigest = digest.getHexDigest();
+                        }
+                        if (newValidators != null && !newValidators.isEmpty()) {
+                            newValidators.save(mDestination);
+                        }
                         mCallback.onSuccess(mDestination, mTask);
                     }
                 }
             } catch (IOException e) {
                 Log.e(TAG, "Error downloading file", e);
-                mCallback.onFailure(isInterrupted());
-            } finally {
                 mClient.disconnect();
+                mCallback.onFailure(isInterrupted());
             }
         }
     }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+
+/**
+ * ETag and Last-Modified of a downloaded file, stored next to it so the next
+ * request for the same file can be made conditional.
+ */
+class HttpValidators {
+
+    private static final String TAG = "HttpValidators";
+
+    private static final String VALIDATORS_EXT = ".validators";
+
+    private final String mETag;
+    private final String mLastModified;
+
+    private HttpValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    private static File getValidatorsFile(File destination) {
+        return new File(destination.getAbsolutePath() + VALIDATORS_EXT);
+    }
+
+    /**
+     * Load the validators of the given file.
+     *
+     * @return the validators, or null if the file or its validators are missing
+     */
+    static HttpValidators load(File destination) {
+        File validatorsFile = getValidatorsFile(destination);
+        if (!destination.exists() || !validatorsFile.exists()) {
+            return null;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(validatorsFile))) {
+            String eTag = br.readLine();
+            String lastModified = br.readLine();
+            if (eTag == null || lastModified == null) {
+                return null;
+            }
+            return new HttpValidators(eTag.isEmpty() ? null : eTag,
+                    lastModified.isEmpty() ? null : lastModified);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + validatorsFile, e);
+            return null;
+        }
+    }
+
+    static HttpValidators from(HttpURLConnection connection) {
+        return new HttpValidators(connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"));
+    }
+
+    /**
+     * Forget the validators of the given file. This must be done before the file
+     * is rewritten, so a partial file is never taken for the cached one.
+     */
+    static void delete(File destination) {
+        //noinspection ResultOfMethodCallIgnored
+        getValidatorsFile(destination).delete();
+    }
+
+    boolean isEmpty() {
+        return mETag == null && mLastModified == null;
+    }
+
+    void apply(HttpURLConnection connection) {
+        if (mETag != null) {
+            connection.setRequestProperty("If-None-Match", mETag);
+        }
+        if (mLastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", mLastModified);
+        }
+    }
+
+    void save(File destination) {
+        File validatorsFile = getValidatorsFile(destination);
+        try (Writer writer = new FileWriter(validatorsFile)) {
+            writer.write((mETag != null ? mETag : "") + "\n");
+            writer.write((mLastModified != null ? mLastModified : "") + "\n");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + validatorsFile, e);
+            delete(destination);
+        }
+    }
+}
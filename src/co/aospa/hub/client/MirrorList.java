@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.util.Log;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered mirrors of a download, shared by all of its connections. When the
+ * current mirror fails the download moves on to the next one, until all of
+ * them have been used up.
+ */
+class MirrorList {
+
+    private static final String TAG = "MirrorList";
+
+    private final List<URL> mMirrors;
+    private int mCurrent;
+
+    MirrorList(List<URL> mirrors) {
+        mMirrors = new ArrayList<>(mirrors);
+    }
+
+    MirrorList(URL url) {
+        this(Collections.singletonList(url));
+    }
+
+    synchronized URL current() {
+        return mCurrent < mMirrors.size() ? mMirrors.get(mCurrent) : null;
+    }
+
+    /**
+     * Report that the given mirror failed. Connections that fail on a mirror that
+     * was already replaced just pick up the new one.
+     *
+     * @return the mirror to continue with, or null if there are none left
+     */
+    synchronized URL failover(URL failed) {
+        URL current = current();
+        // Compare the strings, URL.equals() may block on DNS lookups
+        if (current != null && failed != null
+                && current.toExternalForm().equals(failed.toExternalForm())) {
+            mCurrent++;
+            current = current();
+            Log.d(TAG, "Mirror " + failed + " failed, continuing with " + current);
+        }
+        return current;
+    }
+}
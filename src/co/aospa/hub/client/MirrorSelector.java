@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import co.aospa.hub.util.HubExecutors;
+
+/**
+ * Picks the mirror to download from out of the duplicate links advertised by a
+ * redirect. The best ranked mirrors are probed in parallel with a small ranged
+ * request, and ordered by how long they took to deliver it.
+ */
+class MirrorSelector {
+
+    private static final String TAG = "MirrorSelector";
+
+    private static final int MAX_PROBES = 3;
+    private static final int PROBE_BYTES = 64 * 1024;
+    private static final int PROBE_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_PRIORITY = 999999;
+
+    // https://tools.ietf.org/html/rfc6249
+    // https://tools.ietf.org/html/rfc5988#section-5
+    private static final Pattern DUPLICATE_LINK = Pattern.compile(
+            "(?i)<(.+)>\\s*;\\s*rel=duplicate(?:.*pri=([0-9]+).*|.*)?");
+
+    /**
+     * Get the mirrors of a redirect: its location followed by its duplicate links,
+     * ordered by priority. Mirrors that would change the protocol are dropped.
+     */
+    static List<URL> getMirrors(HttpURLConnection redirect) {
+        String protocol = redirect.getURL().getProtocol();
+
+        class DuplicateLink {
+            private final URL mUrl;
+            private final int mPriority;
+            private DuplicateLink(URL url, int priority) {
+                mUrl = url;
+                mPriority = priority;
+            }
+        }
+
+        List<DuplicateLink> duplicates = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : redirect.getHeaderFields().entrySet()) {
+            if (!"Link".equalsIgnoreCase(entry.getKey())) {
+                continue;
+            }
+            for (String field : entry.getValue()) {
+                Matcher matcher = DUPLICATE_LINK.matcher(field);
+                if (!matcher.matches()) {
+                    Log.d(TAG, "Ignoring link " + field);
+                    continue;
+                }
+                String pri = matcher.group(2);
+                int priority = pri != null ? Integer.parseInt(pri) : DEFAULT_PRIORITY;
+                try {
+                    duplicates.add(new DuplicateLink(new URL(matcher.group(1)), priority));
+                    Log.d(TAG, "Adding duplicate link " + matcher.group(1));
+                } catch (MalformedURLException e) {
+                    Log.e(TAG, "Ignoring malformed link " + field, e);
+                }
+            }
+        }
+        duplicates.sort(Comparator.comparingInt(d -> d.mPriority));
+
+        List<URL> mirrors = new ArrayList<>();
+        String location = redirect.getHeaderField("Location");
+        if (location != null) {
+            try {
+                mirrors.add(new URL(redirect.getURL(), location));
+            } catch (MalformedURLException e) {
+                Log.e(TAG, "Ignoring malformed location " + location, e);
+            }
+        }
+        // URL.equals() resolves the hosts, compare the strings instead
+        Set<String> seen = new HashSet<>();
+        for (URL mirror : mirrors) {
+            seen.add(mirror.toExternalForm());
+        }
+        for (DuplicateLink duplicate : duplicates) {
+            if (seen.add(duplicate.mUrl.toExternalForm())) {
+                mirrors.add(duplicate.mUrl);
+            }
+        }
+        // If we hadn't handled duplicate links, we wouldn't have used these urls
+        mirrors.removeIf(url -> {
+            boolean changesProtocol = !url.getProtocol().equals(protocol);
+            if (changesProtocol) {
+                Log.d(TAG, "Ignoring " + url + ", protocol changes are not allowed");
+            }
+            return changesProtocol;
+        });
+        return mirrors;
+    }
+
+    /**
+     * Probe the first mirrors in parallel and order them from fastest to slowest.
+     * Mirrors that weren't probed keep their priority order after them. Mirrors
+     * that ignored the range can't serve a segmented download, so they come next,
+     * and the ones that failed their probe are only kept as a last resort.
+     */
+    static List<URL> rank(List<URL> mirrors) {
+        if (mirrors.size() < 2) {
+            return mirrors;
+        }
+        final int count = Math.min(MAX_PROBES, mirrors.size());
+        final CountDownLatch done = new CountDownLatch(count);
+        List<Probe> probes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Probe probe = new Probe(mirrors.get(i), done);
+            probes.add(probe);
+            HubExecutors.net().execute(probe);
+        }
+        try {
+            done.await(PROBE_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Probe> ranged = new ArrayList<>();
+        List<Probe> unranged = new ArrayList<>();
+        List<URL> failed = new ArrayList<>();
+        for (Probe probe : probes) {
+            if (probe.mScore < 0) {
+                failed.add(probe.mUrl);
+            } else if (probe.mPartial) {
+                ranged.add(probe);
+            } else {
+                unranged.add(probe);
+            }
+        }
+        ranged.sort(Comparator.comparingLong(p -> p.mScore));
+        unranged.sort(Comparator.comparingLong(p -> p.mScore));
+
+        List<URL> ranked = new ArrayList<>();
+        for (Probe probe : ranged) {
+            ranked.add(probe.mUrl);
+        }
+        ranked.addAll(mirrors.subList(probes.size(), mirrors.size()));
+        for (Probe probe : unranged) {
+            ranked.add(probe.mUrl);
+        }
+        ranked.addAll(failed);
+        Log.d(TAG, "Ranked mirrors " + ranked);
+        return ranked;
+    }
+
+    private static class Probe implements Runnable {
+
+        private final URL mUrl;
+        private final CountDownLatch mDone;
+        // Projected time in ms to fetch PROBE_BYTES, or -1 if the probe failed
+        private volatile long mScore = -1;
+        // Whether the mirror replied with the requested range
+        private volatile boolean mPartial;
+
+        private Probe(URL url, CountDownLatch done) {
+            mUrl = url;
+            mDone = done;
+        }
+
+        @Override
+        public void run() {
+            HttpURLConnection connection = null;
+            try {
+                final long start = SystemClock.elapsedRealtime();
+                connection = HttpTransport.open(mUrl);
+                connection.setConnectTimeout(PROBE_TIMEOUT_MS);
+                connection.setReadTimeout(PROBE_TIMEOUT_MS);
+                connection.setRequestProperty("Range", "bytes=0-" + (PROBE_BYTES - 1));
+                connection.connect();
+                int responseCode = connection.getResponseCode();
+                if (HttpURLConnectionClient.isSuccessCode(responseCode)) {
+                    throw new IOException("Server replied with " + responseCode);
+                }
+                mPartial = HttpURLConnectionClient.isPartialContentCode(responseCode);
+                long bytesRead = 0;
+                long firstByte = -1;
+                InputStream inputStream = connection.getInputStream();
+                byte[] b = new byte[8192];
+                int count;
+                while (bytesRead < PROBE_BYTES && (count = inputStream.read(b)) > 0) {
+                    if (firstByte < 0) {
+                        firstByte = SystemClock.elapsedRealtime() - start;
+                    }
+                    bytesRead += count;
+                }
+                if (bytesRead == 0) {
+                    throw new IOException("Empty response");
+                }
+                final long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+                mScore = elapsed * PROBE_BYTES / bytesRead;
+                Log.d(TAG, "Probed " + mUrl + ": first byte after " + firstByte + " ms, "
+                        + (bytesRead * 1000 / elapsed) + " bytes/s"
+                        + (mPartial ? "" : ", ranges not supported"));
+                if (mPartial && bytesRead == connection.getContentLengthLong()) {
+                    // The whole range was read, so the download can reuse the connection
+                    HttpTransport.release(connection);
+                } else {
+                    // The rest of the body was never read, don't let it hold the socket
+                    connection.disconnect();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Probe of " + mUrl + " failed", e);
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+}
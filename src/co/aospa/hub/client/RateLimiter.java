@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket shared by every connection of a download. Reads take tokens
+ * after the fact and may run the bucket into debt, in which case the reader
+ * waits until the debt is paid back. The rate can be changed at any time,
+ * waiting readers pick it up right away.
+ */
+public class RateLimiter {
+
+    public static final long UNLIMITED = 0;
+
+    private static final long MIN_BURST = 64 * 1024;
+
+    private long mRate = UNLIMITED;
+    private long mTokens;
+    private long mLastRefill = SystemClock.elapsedRealtime();
+
+    /**
+     * Set the rate in bytes per second, or {@link #UNLIMITED}.
+     */
+    public synchronized void setRate(long rate) {
+        refill();
+        mRate = Math.max(UNLIMITED, rate);
+        mTokens = Math.min(mTokens, getBurst());
+        notifyAll();
+    }
+
+    public synchronized long getRate() {
+        return mRate;
+    }
+
+    /**
+     * Take the given number of bytes out of the bucket, waiting as long as it is
+     * in debt.
+     *
+     * @return how long the caller was held back, in ms
+     */
+    synchronized long acquire(int bytes) throws InterruptedIOException {
+        if (mRate == UNLIMITED) {
+            return 0;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        refill();
+        mTokens -= bytes;
+        try {
+            while (mRate != UNLIMITED && mTokens < 0) {
+                wait(Math.max(1, -mTokens * 1000 / mRate));
+                refill();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private long getBurst() {
+        return Math.max(MIN_BURST, mRate / 4);
+    }
+
+    private void refill() {
+        final long millis = SystemClock.elapsedRealtime();
+        if (mRate == UNLIMITED) {
+            mTokens = 0;
+            mLastRefill = millis;
+            return;
+        }
+        final long tokens = (millis - mLastRefill) * mRate / 1000;
+        // Only move forward by whole tokens so slow rates don't lose time to rounding
+        if (tokens > 0) {
+            mTokens = Math.min(getBurst(), mTokens + tokens);
+            mLastRefill += tokens * 1000 / mRate;
+        }
+    }
+}
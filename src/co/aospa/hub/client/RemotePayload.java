@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import co.aospa.hub.util.PayloadInfo;
+import co.aospa.hub.util.ZipIndex;
+
+/**
+ * Location of the A/B payload inside a remote update package, so update_engine
+ * can stream it instead of the package being downloaded first. The zip is never
+ * fetched as a whole, only its end, where the central directory is, and the few
+ * bytes around the payload entries are.
+ */
+public class RemotePayload {
+
+    private static final String TAG = "RemotePayload";
+
+    // The end of central directory record and the longest possible comment
+    private static final int TAIL_SIZE = 22 + 0xffff;
+
+    private final String mUrl;
+    private final PayloadInfo mPayloadInfo;
+
+    private RemotePayload(String url, PayloadInfo payloadInfo) {
+        mUrl = url;
+        mPayloadInfo = payloadInfo;
+    }
+
+    /**
+     * Find the payload of the update package at the given url.
+     *
+     * @throws IOException if the server doesn't support ranged requests, or the
+     *                     package has no A/B payload
+     */
+    public static RemotePayload resolve(String url) throws IOException {
+        RangeSource source = new RangeSource(new URL(url));
+        PayloadInfo payloadInfo = PayloadInfo.read(ZipIndex.read(source));
+        Log.d(TAG, "Payload of " + url + " is at " + payloadInfo.getOffset()
+                + ", " + payloadInfo.getSize() + " bytes");
+        return new RemotePayload(source.mUrl.toString(), payloadInfo);
+    }
+
+    /**
+     * Get the url of the package, once redirects have been followed.
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public PayloadInfo getPayloadInfo() {
+        return mPayloadInfo;
+    }
+
+    /**
+     * Reads the zip with ranged requests. The first request fetches the end of the
+     * file, which also gives its length and usually holds the central directory,
+     * so it is kept.
+     */
+    private static class RangeSource implements ZipIndex.Source {
+
+        private URL mUrl;
+        private long mLength = -1;
+        private long mTailOffset;
+        private ByteBuffer mTail;
+
+        RangeSource(URL url) {
+            mUrl = url;
+        }
+
+        @Override
+        public long length() throws IOException {
+            if (mLength < 0) {
+                fetchTail();
+            }
+            return mLength;
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            if (mTail != null && offset >= mTailOffset
+                    && offset + length <= mTailOffset + mTail.capacity()) {
+                ByteBuffer buffer = mTail.duplicate();
+                buffer.position((int) (offset - mTailOffset));
+                buffer.limit(buffer.position() + length);
+                return buffer.slice();
+            }
+            HttpURLConnection connection = openRange("bytes=" + offset + "-"
+                    + (offset + length - 1));
+            return ByteBuffer.wrap(readBody(connection, length));
+        }
+
+        private void fetchTail() throws IOException {
+            HttpURLConnection connection = openRange("bytes=-" + TAIL_SIZE);
+            // The redirects were followed, the next requests go straight to the mirror
+            mUrl = connection.getURL();
+            String contentRange = connection.getHeaderField("Content-Range");
+            int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+            try {
+                mLength = Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NullPointerException | NumberFormatException e) {
+                connection.disconnect();
+                throw new IOException("Invalid Content-Range " + contentRange);
+            }
+            int tailLength = (int) Math.min(mLength, TAIL_SIZE);
+            mTail = ByteBuffer.wrap(readBody(connection, tailLength));
+            mTailOffset = mLength - tailLength;
+        }
+
+        private HttpURLConnection openRange(String range) throws IOException {
+            HttpURLConnection connection = HttpTransport.open(mUrl);
+            connection.setReadTimeout(StallDetector.READ_TIMEOUT_MS);
+            connection.setRequestProperty("Range", range);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            int responseCode = connection.getResponseCode();
+            if (!HttpURLConnectionClient.isPartialContentCode(responseCode)) {
+                HttpTransport.release(connection);
+                throw new IOException("Ranged requests are not supported, response code "
+                        + responseCode);
+            }
+            return connection;
+        }
+
+        private static byte[] readBody(HttpURLConnection connection, int length)
+                throws IOException {
+            byte[] body = new byte[length];
+            try (InputStream inputStream = connection.getInputStream()) {
+                new DataInputStream(inputStream).readFully(body);
+            } catch (IOException e) {
+                connection.disconnect();
+                throw e;
+            }
+            return body;
+        }
+    }
+}
@@ -0,0 +1,673 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import static co.aospa.hub.client.HttpURLConnectionClient.isPartialContentCode;
+import static co.aospa.hub.client.HttpURLConnectionClient.isRedirectCode;
+import static co.aospa.hub.client.HttpURLConnectionClient.isSuccessCode;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import co.aospa.hub.util.HubExecutors;
+
+/**
+ * Downloads a file over several connections at once, each one fetching its own
+ * byte range and writing it at the matching offset of the destination file.
+ * Completed chunks are recorded in a {@link DownloadJournal} so that resuming only
+ * fetches the chunks that are missing or corrupt.
+ */
+public class SegmentedDownloadClient implements DownloadClient {
+
+    private final static String TAG = "SegmentedDownloadClient";
+
+    private static final long MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    // Keep segments short so chunks complete roughly in file order, letting the
+    // digest hash them back while they are still in the page cache
+    private static final int MAX_SEGMENT_CHUNKS = 2;
+
+    private final String mUrl;
+    private final File mDestination;
+    private final DownloadClient.ProgressListener mProgressListener;
+    private final DownloadClient.DownloadCallback mCallback;
+    private final boolean mUseDuplicateLinks;
+    private final int mTask;
+    private final boolean mComputeDigest;
+    private final int mMaxConnections;
+    private final RateLimiter mRateLimiter;
+
+    private Download mDownload;
+    private volatile String mDigest;
+
+    SegmentedDownloadClient(String url, File destination,
+                            DownloadClient.ProgressListener progressListener,
+                            DownloadClient.DownloadCallback callback,
+                            boolean useDuplicateLinks,
+                            int task,
+                            boolean computeDigest,
+                            int maxConnections,
+                            RateLimiter rateLimiter) {
+        mUrl = url;
+        mDestination = destination;
+        mProgressListener = progressListener;
+        mCallback = callback;
+        mUseDuplicateLinks = useDuplicateLinks;
+        mTask = task;
+        mComputeDigest = computeDigest;
+        mMaxConnections = maxConnections;
+        mRateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void start() {
+        if (mDownload != null) {
+            Log.e(TAG, "Already downloading");
+            return;
+        }
+        downloadFileInternalCommon(false);
+    }
+
+    @Override
+    public void resume() {
+        if (mDownload != null) {
+            Log.e(TAG, "Already downloading");
+            return;
+        }
+        if (!mDestination.exists()) {
+            mCallback.onFailure(false);
+            return;
+        }
+        downloadFileInternalCommon(true);
+    }
+
+    @Override
+    public void cancel() {
+        if (mDownload == null) {
+            Log.e(TAG, "Not downloading");
+            return;
+        }
+        mDownload.cancel();
+        mDownload = null;
+    }
+
+    @Override
+    public String getDigest() {
+        Download download = mDownload;
+        if (download != null && download.mFallbackClient != null) {
+            return download.mFallbackClient.getDigest();
+        }
+        return mDigest;
+    }
+
+    @Override
+    public boolean isNotModified() {
+        return false;
+    }
+
+    private void downloadFileInternalCommon(boolean resume) {
+        mDownload = new Download(resume);
+        mDownload.start();
+    }
+
+    private static class ProbeHeaders implements DownloadClient.Headers {
+        private final HttpURLConnection mConnection;
+
+        private ProbeHeaders(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public String get(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getAll() {
+            return mConnection.getHeaderFields();
+        }
+    }
+
+    private class Download extends DownloadTask {
+
+        private final boolean mResume;
+        private final Queue<Segment> mSegments = new ArrayDeque<>();
+        private final List<Worker> mWorkers = new ArrayList<>();
+        private final AtomicLong mTotalBytesRead = new AtomicLong();
+
+        private volatile IOException mError;
+        private volatile DownloadClient mFallbackClient;
+        private MirrorList mMirrors;
+        private DownloadJournal mJournal;
+        private FileChannel mChannel;
+        private CountDownLatch mRemaining;
+
+        private long mTotalBytes = 0;
+        private long mCurSampleBytes = 0;
+        private long mCurSampleSyscalls = 0;
+        private long mLastMillis = 0;
+        private volatile long mSpeed = -1;
+        private long mEta = -1;
+        private long mSyscallRate = 0;
+
+        private Download(boolean resume) {
+            mResume = resume;
+        }
+
+        private synchronized void cancel() {
+            if (mRemaining == null) {
+                interrupt();
+            } else {
+                // The connections write through mChannel, so only let them stop.
+                // The journal is flushed once they did.
+                markInterrupted();
+            }
+            if (mFallbackClient != null) {
+                mFallbackClient.cancel();
+            }
+            for (Worker worker : mWorkers) {
+                worker.stop();
+            }
+        }
+
+        private void calculateSpeed() {
+            final long millis = SystemClock.elapsedRealtime();
+            final long delta = millis - mLastMillis;
+            final long totalBytesRead = mTotalBytesRead.get();
+            if (delta > 0) {
+                final long curSpeed = ((totalBytesRead - mCurSampleBytes) * 1000) / delta;
+                if (mSpeed == -1) {
+                    mSpeed = curSpeed;
+                } else {
+                    mSpeed = ((mSpeed * 3) + curSpeed) / 4;
+                }
+
+                long syscalls = 0;
+                for (Worker worker : mWorkers) {
+                    syscalls += worker.mBuffer.getSyscalls();
+                }
+                mSyscallRate = ((syscalls - mCurSampleSyscalls) * 1000) / delta;
+
+                mLastMillis = millis;
+                mCurSampleBytes = totalBytesRead;
+                mCurSampleSyscalls = syscalls;
+            }
+        }
+
+        private void reportTransferStats() {
+            int bufferSize = 0;
+            for (Worker worker : mWorkers) {
+                bufferSize += worker.mBuffer.size();
+            }
+            mProgressListener.updateTransferStats(bufferSize / mWorkers.size(), mSyscallRate);
+        }
+
+        private void calculateEta() {
+            if (mSpeed > 0) {
+                mEta = (mTotalBytes - mTotalBytesRead.get()) / mSpeed;
+            }
+        }
+
+        private void onSegmentFailed(IOException e) {
+            synchronized (this) {
+                if (mError == null) {
+                    mError = e;
+                }
+                for (Worker worker : mWorkers) {
+                    worker.stop();
+                }
+            }
+        }
+
+        private HttpURLConnection head(URL url, boolean followRedirects) throws IOException {
+            HttpURLConnection connection = HttpTransport.open(url);
+            connection.setInstanceFollowRedirects(followRedirects);
+            connection.setRequestMethod("HEAD");
+            connection.connect();
+            return connection;
+        }
+
+        private synchronized void startFallback() throws IOException {
+            if (isInterrupted()) {
+                return;
+            }
+            // A partial file might have holes left by a segmented attempt, so never
+            // resume it from its length
+            mFallbackClient = new HttpURLConnectionClient(mUrl, mDestination, mProgressListener,
+                    mCallback, mUseDuplicateLinks, mTask, mComputeDigest, mRateLimiter, false, false);
+            mFallbackClient.start();
+        }
+
+        @Override
+        void execute() {
+            DownloadJournal journal = null;
+            if (mResume) {
+                journal = DownloadJournal.load(mDestination);
+                if (journal != null) {
+                    try {
+                        int dropped = journal.verify();
+                        Log.d(TAG, "Resuming with " + dropped + " corrupt chunks dropped");
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not verify the partial download", e);
+                        journal = null;
+                    }
+                }
+                if (journal != null && journal.isComplete()) {
+                    Log.d(TAG, "All chunks are already on disk");
+                    mTotalBytes = journal.getTotalBytes();
+                    if (mComputeDigest) {
+                        StreamingDigest digest = new StreamingDigest();
+                        try (FileChannel channel = FileChannel.open(mDestination.toPath(),
+                                StandardOpenOption.READ)) {
+                            digest.catchUp(journal, channel);
+                            mDigest = digest.getHexDigest();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Could not compute the digest", e);
+                        }
+                    }
+                    if (mProgressListener != null) {
+                        mProgressListener.update(mTotalBytes, mTotalBytes, mSpeed, mEta, true);
+                    }
+                    mCallback.onSuccess(mDestination, mTask);
+                    return;
+                }
+            }
+
+            HttpURLConnection probe = null;
+            URL url;
+            try {
+                probe = head(new URL(mUrl), !mUseDuplicateLinks);
+                int responseCode = probe.getResponseCode();
+                if (mUseDuplicateLinks && isRedirectCode(responseCode)) {
+                    List<URL> mirrors = MirrorSelector.rank(MirrorSelector.getMirrors(probe));
+                    HttpTransport.release(probe);
+                    probe = null;
+                    for (int i = 0; i < mirrors.size(); i++) {
+                        try {
+                            probe = head(mirrors.get(i), true);
+                            responseCode = probe.getResponseCode();
+                            // Keep the remaining mirrors to fail over to
+                            mMirrors = new MirrorList(mirrors.subList(i, mirrors.size()));
+                            break;
+                        } catch (IOException e) {
+                            Log.e(TAG, "Could not probe " + mirrors.get(i), e);
+                            probe = null;
+                        }
+                    }
+                    if (probe == null) {
+                        throw new IOException("No mirror available");
+                    }
+                } else {
+                    mMirrors = new MirrorList(probe.getURL());
+                }
+                mTotalBytes = probe.getContentLengthLong();
+                boolean acceptRanges = "bytes".equalsIgnoreCase(
+                        probe.getHeaderField("Accept-Ranges"));
+                if (isSuccessCode(responseCode) || !acceptRanges
+                        || mTotalBytes < MIN_SEGMENT_SIZE * 2) {
+                    Log.d(TAG, "Server does not support segmented downloads, replied with "
+                            + responseCode + ", using a single connection");
+                    DownloadJournal.delete(mDestination);
+                    startFallback();
+                    return;
+                }
+                url = probe.getURL();
+                mCallback.onResponse(responseCode, url.toString(), new ProbeHeaders(probe));
+            } catch (IOException e) {
+                Log.e(TAG, "Error probing " + mUrl, e);
+                mCallback.onFailure(isInterrupted());
+                return;
+            } finally {
+                if (probe != null) {
+                    HttpTransport.release(probe);
+                }
+            }
+
+            try {
+                if (journal != null && journal.getTotalBytes() == mTotalBytes) {
+                    mChannel = FileChannel.open(mDestination.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                } else {
+                    if (mResume) {
+                        Log.d(TAG, "No usable journal, restarting download from the beginning");
+                    }
+                    mChannel = FileChannel.open(mDestination.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                    journal = DownloadJournal.create(mDestination, mTotalBytes);
+                }
+                mJournal = journal;
+                mTotalBytesRead.set(journal.getCommittedBytes());
+                planSegments();
+
+                int count = Math.min(mMaxConnections, mSegments.size());
+                synchronized (this) {
+                    mRemaining = new CountDownLatch(count);
+                    for (int i = 0; i < count; i++) {
+                        mWorkers.add(new Worker());
+                    }
+                    if (isInterrupted()) {
+                        mCallback.onFailure(true);
+                        return;
+                    }
+                    Log.d(TAG, "Downloading " + (mTotalBytes - mTotalBytesRead.get())
+                            + " bytes from " + url + " over " + count + " connections");
+                    for (Worker worker : mWorkers) {
+                        worker.start(HubExecutors.net());
+                    }
+                }
+
+                StreamingDigest digest = mComputeDigest ? new StreamingDigest() : null;
+                mLastMillis = SystemClock.elapsedRealtime();
+                mCurSampleBytes = mTotalBytesRead.get();
+                while (!mRemaining.await(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    mJournal.flush(mChannel);
+                    if (digest != null) {
+                        digest.catchUp(mJournal, mChannel);
+                    }
+                    calculateSpeed();
+                    calculateEta();
+                    if (mProgressListener != null) {
+                        mProgressListener.update(mTotalBytesRead.get(), mTotalBytes, mSpeed, mEta,
+                                false);
+                        reportTransferStats();
+                    }
+                }
+                mJournal.flush(mChannel);
+                if (mProgressListener != null) {
+                    mProgressListener.update(mTotalBytesRead.get(), mTotalBytes, mSpeed, mEta,
+                            true);
+                }
+
+                if (isInterrupted()) {
+                    mCallback.onFailure(true);
+                } else if (mError != null) {
+                    Log.e(TAG, "Error downloading file", mError);
+                    mCallback.onFailure(false);
+                } else {
+                    if (digest != null) {
+                        digest.catchUp(mJournal, mChannel);
+                        if (digest.isComplete(mJournal)) {
+                            mDigest = digest.getHexDigest();
+                        }
+                    }
+                    mCallback.onSuccess(mDestination, mTask);
+                }
+            } catch (InterruptedException e) {
+                flushJournal();
+                cancel();
+                mCallback.onFailure(true);
+            } catch (IOException e) {
+                Log.e(TAG, "Error downloading file", e);
+                flushJournal();
+                cancel();
+                mCallback.onFailure(isInterrupted());
+            } finally {
+                if (mChannel != null) {
+                    try {
+                        mChannel.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        /**
+         * Record the chunks written since the last flush, so resuming doesn't fetch
+         * them again. An interrupt would close the channel as soon as it is synced,
+         * so it is held back meanwhile, and a channel it already closed is replaced.
+         */
+        private void flushJournal() {
+            if (mJournal == null) {
+                return;
+            }
+            boolean interrupted = Thread.interrupted();
+            try {
+                if (mChannel != null && mChannel.isOpen()) {
+                    mJournal.flush(mChannel);
+                } else {
+                    try (FileChannel channel = FileChannel.open(mDestination.toPath(),
+                            StandardOpenOption.WRITE)) {
+                        mJournal.flush(channel);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not update the download journal", e);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Group the chunks that are still missing into short contiguous segments,
+         * queued in file order and picked up by the connections as they free up.
+         */
+        private void planSegments() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < mJournal.getChunkCount(); i++) {
+                if (!mJournal.isCommitted(i)) {
+                    missing.add(i);
+                }
+            }
+            int perSegment = Math.max(1, Math.min(MAX_SEGMENT_CHUNKS,
+                    (missing.size() + mMaxConnections - 1) / mMaxConnections));
+            int first = -1;
+            int last = -1;
+            for (int chunk : missing) {
+                if (first != -1 && (chunk != last + 1 || last - first + 1 >= perSegment)) {
+                    mSegments.add(new Segment(first, last));
+                    first = -1;
+                }
+                if (first == -1) {
+                    first = chunk;
+                }
+                last = chunk;
+            }
+            if (first != -1) {
+                mSegments.add(new Segment(first, last));
+            }
+        }
+
+        private synchronized Segment nextSegment() {
+            return mSegments.poll();
+        }
+
+        private class Segment {
+
+            private final int mLastChunk;
+            private int mChunk;
+            // Bytes of the current chunk counted so far, lost if the connection fails
+            private long mChunkBytes;
+
+            private Segment(int firstChunk, int lastChunk) {
+                mChunk = firstChunk;
+                mLastChunk = lastChunk;
+            }
+
+            /**
+             * Download the segment, moving on to the next mirror if the connection
+             * fails or stalls. Chunks that were completed are kept, the one in
+             * progress is fetched again.
+             */
+            private void download(Worker worker) throws IOException {
+                URL url = mMirrors.current();
+                for (;;) {
+                    try {
+                        download(worker, url);
+                        return;
+                    } catch (WriteException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        mTotalBytesRead.addAndGet(-mChunkBytes);
+                        mChunkBytes = 0;
+                        worker.mBuffer.get().clear();
+                        if (worker.isInterrupted()) {
+                            throw e;
+                        }
+                        URL next = mMirrors.failover(url);
+                        if (next == null) {
+                            throw e;
+                        }
+                        Log.e(TAG, "Lost " + url + ", retrying chunk " + mChunk + " from "
+                                + next, e);
+                        url = next;
+                    }
+                }
+            }
+
+            private void download(Worker worker, URL url) throws IOException {
+                long position = DownloadJournal.getChunkStart(mChunk);
+                long end = mJournal.getChunkEnd(mLastChunk);
+                HttpURLConnection connection = null;
+                try {
+                    connection = HttpTransport.open(url);
+                    worker.mConnection = connection;
+                    if (worker.isInterrupted()) {
+                        throw new InterruptedIOException("Worker stopped");
+                    }
+                    connection.setReadTimeout(StallDetector.READ_TIMEOUT_MS);
+                    connection.setRequestProperty("Range",
+                            "bytes=" + position + "-" + (end - 1));
+                    connection.connect();
+                    int responseCode = connection.getResponseCode();
+                    if (!isPartialContentCode(responseCode)) {
+                        throw new IOException("Server replied with " + responseCode
+                                + " for range " + position + "-" + (end - 1));
+                    }
+                    try (InputStream inputStream = connection.getInputStream()) {
+                        AdaptiveBuffer adaptiveBuffer = worker.mBuffer;
+                        ByteBuffer buffer = adaptiveBuffer.get();
+                        CRC32 crc = new CRC32();
+                        StallDetector stallDetector = new StallDetector();
+                        long chunkEnd = mJournal.getChunkEnd(mChunk);
+                        int count;
+                        // The buffer is flushed when it is full or reaches the end of a
+                        // chunk, so a chunk is only marked written once all its data is
+                        while (!worker.isInterrupted() && position < end
+                                && (count = inputStream.read(buffer.array(), buffer.position(),
+                                (int) Math.min(buffer.remaining(),
+                                        chunkEnd - position - buffer.position()))) > 0) {
+                            adaptiveBuffer.countSyscall();
+                            stallDetector.onRead(count, mRateLimiter.acquire(count));
+                            crc.update(buffer.array(), buffer.position(), count);
+                            buffer.position(buffer.position() + count);
+                            mTotalBytesRead.addAndGet(count);
+                            mChunkBytes += count;
+                            boolean chunkDone = position + buffer.position() == chunkEnd;
+                            if (!buffer.hasRemaining() || chunkDone) {
+                                position = write(adaptiveBuffer, position);
+                                if (chunkDone) {
+                                    mJournal.markWritten(mChunk, crc.getValue());
+                                    crc.reset();
+                                    mChunkBytes = 0;
+                                    mChunk++;
+                                    chunkEnd = mJournal.getChunkEnd(mChunk);
+                                }
+                                adaptiveBuffer.adapt(mSpeed / mWorkers.size());
+                                buffer = adaptiveBuffer.get();
+                            }
+                        }
+                        position = write(adaptiveBuffer, position);
+                    }
+                    if (!worker.isInterrupted() && position < end) {
+                        throw new IOException("Connection closed at " + position
+                                + ", expected " + end);
+                    }
+                } catch (IOException e) {
+                    // The body was fully read otherwise, and its connection went back
+                    // to the pool for the next segment
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                    throw e;
+                } finally {
+                    worker.mConnection = null;
+                }
+            }
+        }
+
+        private long write(AdaptiveBuffer adaptiveBuffer, long position) throws WriteException {
+            ByteBuffer buffer = adaptiveBuffer.get();
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    position += mChannel.write(buffer, position);
+                    adaptiveBuffer.countSyscall();
+                }
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+            buffer.clear();
+            return position;
+        }
+
+        private class Worker extends DownloadTask {
+
+            private final AdaptiveBuffer mBuffer = new AdaptiveBuffer(INITIAL_BUFFER_SIZE);
+            private volatile HttpURLConnection mConnection;
+
+            /**
+             * Stop the worker without interrupting it, as an interrupt during a write
+             * would close mChannel for every connection. Disconnecting unblocks a
+             * pending read.
+             */
+            private void stop() {
+                markInterrupted();
+                HttpURLConnection connection = mConnection;
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+
+            @Override
+            void execute() {
+                try {
+                    Segment segment;
+                    while (!isInterrupted() && (segment = nextSegment()) != null) {
+                        segment.download(this);
+                    }
+                } catch (IOException e) {
+                    if (!isInterrupted()) {
+                        onSegmentFailed(e);
+                    }
+                } finally {
+                    mRemaining.countDown();
+                }
+            }
+        }
+    }
+}
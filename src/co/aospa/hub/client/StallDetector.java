@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * Detects a connection whose throughput stayed below a floor for a whole
+ * window. Connections that stop sending data entirely are caught by the read
+ * timeout instead. Time spent held back by the {@link RateLimiter} doesn't
+ * count against the connection.
+ */
+class StallDetector {
+
+    static final int READ_TIMEOUT_MS = 15000;
+
+    private static final long MIN_SPEED = 16 * 1024;
+    private static final long WINDOW_MS = 20000;
+
+    private long mWindowStart = SystemClock.elapsedRealtime();
+    private long mWindowBytes;
+    private long mWindowThrottledMs;
+
+    void onRead(int count, long throttledMs) throws IOException {
+        mWindowBytes += count;
+        mWindowThrottledMs += throttledMs;
+        final long millis = SystemClock.elapsedRealtime();
+        final long delta = millis - mWindowStart - mWindowThrottledMs;
+        if (delta >= WINDOW_MS) {
+            if (mWindowBytes * 1000 / delta < MIN_SPEED) {
+                throw new IOException("Stalled at " + (mWindowBytes * 1000 / delta)
+                        + " bytes/s");
+            }
+            mWindowStart = millis;
+            mWindowBytes = 0;
+            mWindowThrottledMs = 0;
+        }
+    }
+}
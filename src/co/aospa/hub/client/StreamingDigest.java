@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 of a download, computed while it is being written so the package
+ * doesn't need to be read again once it is complete.
+ */
+class StreamingDigest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest mDigest;
+    private ByteBuffer mBuffer;
+    private int mNextChunk;
+
+    StreamingDigest() {
+        try {
+            mDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void update(byte[] b, int off, int len) {
+        mDigest.update(b, off, len);
+    }
+
+    /**
+     * Hash the bytes of the given range that are already on disk.
+     */
+    void update(FileChannel channel, long position, long end) throws IOException {
+        if (mBuffer == null) {
+            mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        while (position < end) {
+            mBuffer.clear();
+            mBuffer.limit((int) Math.min(mBuffer.capacity(), end - position));
+            int count = channel.read(mBuffer, position);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            mBuffer.flip();
+            mDigest.update(mBuffer);
+            position += count;
+        }
+    }
+
+    /**
+     * Hash the chunks committed to the journal that directly follow the ones
+     * already hashed. Chunks are read back right after being committed, while
+     * they are still in the page cache.
+     */
+    void catchUp(DownloadJournal journal, FileChannel channel) throws IOException {
+        while (mNextChunk < journal.getChunkCount() && journal.isCommitted(mNextChunk)) {
+            update(channel, DownloadJournal.getChunkStart(mNextChunk),
+                    journal.getChunkEnd(mNextChunk));
+            mNextChunk++;
+        }
+    }
+
+    boolean isComplete(DownloadJournal journal) {
+        return mNextChunk == journal.getChunkCount();
+    }
+
+    String getHexDigest() {
+        byte[] digest = mDigest.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import java.io.IOException;
+
+/**
+ * Failure to write the destination of a download, like a full or broken disk.
+ * Unlike a failed read from the server, moving to another mirror can't fix it.
+ */
+class WriteException extends IOException {
+
+    WriteException(IOException cause) {
+        super("Could not write the download: " + cause.getMessage(), cause);
+    }
+}
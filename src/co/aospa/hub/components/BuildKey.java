@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.components;
+
+import co.aospa.hub.util.SemanticBuildVersion;
+
+/**
+ * Orders the builds of an update feed: by Android version, then by version
+ * number, then by build date. The versions are parsed once by the component so
+ * comparing keys doesn't parse anything.
+ */
+public final class BuildKey implements Comparable<BuildKey> {
+
+    private final SemanticBuildVersion mAndroidVersion;
+    private final SemanticBuildVersion mVersionNumber;
+    private final long mTimestamp;
+
+    private BuildKey(SemanticBuildVersion androidVersion, SemanticBuildVersion versionNumber,
+                     long timestamp) {
+        mAndroidVersion = androidVersion;
+        mVersionNumber = versionNumber;
+        mTimestamp = timestamp;
+    }
+
+    static BuildKey of(UpdateComponent component) {
+        return new BuildKey(component.getSemanticAndroidVersion(),
+                component.getSemanticVersionNumber(), component.getTimestamp());
+    }
+
+    @Override
+    public int compareTo(BuildKey other) {
+        int result = mAndroidVersion.compareTo(other.mAndroidVersion);
+        if (result == 0) {
+            result = mVersionNumber.compareTo(other.mVersionNumber);
+        }
+        if (result == 0) {
+            result = Long.compare(mTimestamp, other.mTimestamp);
+        }
+        return result;
+    }
+}
@@ -17,11 +17,14 @@ package co.aospa.hub.components;
 
 import java.io.File;
 
+import co.aospa.hub.util.SemanticBuildVersion;
+
 public class ChangelogComponent extends Component {
 
     private String changelog;
     private String version;
     private String versionNumber;
+    private SemanticBuildVersion semanticVersionNumber;
     private String buildType;
     private String id;
 
@@ -51,6 +54,14 @@ public class ChangelogComponent extends Component {
     @Override
     public void setVersionNumber(String versionNumber) {
         this.versionNumber = versionNumber;
+        this.semanticVersionNumber = null;
+    }
+
+    public SemanticBuildVersion getSemanticVersionNumber() {
+        if (this.semanticVersionNumber == null) {
+            this.semanticVersionNumber = SemanticBuildVersion.parse(this.versionNumber);
+        }
+        return this.semanticVersionNumber;
     }
 
     @Override
@@ -19,17 +19,23 @@ import static co.aospa.hub.client.ClientConnector.TaskType.CHANGELOG;
 import static co.aospa.hub.client.ClientConnector.TaskType.CONFIG;
 import static co.aospa.hub.client.ClientConnector.TaskType.UPDATES;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+
+import co.aospa.hub.util.Version;
 
 public class ComponentBuilder {
 
@@ -39,94 +45,308 @@ public class ComponentBuilder {
     public static final String COMPONENT_CHANGELOG = "changelog";
     public static final String COMPONENT_UPDATES = "updates";
 
-    private static Component buildComponentForTask(JSONObject object, int task) throws JSONException {
+    private static final List<String> SHARED_FIELDS = Arrays.asList(
+            "version", "version_code", "build_type", "id");
+    private static final List<String> OTA_FIELDS = Arrays.asList(
+            "enabled", "whitelist_only");
+    private static final List<String> CHANGELOG_FIELDS = Arrays.asList(
+            "changelog_main");
+    private static final List<String> UPDATE_FIELDS = Arrays.asList(
+            "filename", "datetime", "size", "url", "android_version", "android_spl",
+            "changelog_device");
+    private static final List<String> DELTA_FIELDS = Arrays.asList(
+            "source_fingerprint", "filename", "size", "url");
+
+    /**
+     * Build the component of the given task from the downloaded data. The data is
+     * decoded while it is read. The updates feed may list several builds, the best
+     * one for this device is picked in the same pass. For the other components only
+     * the first valid entry is built, the others are skipped without being decoded.
+     * Entries with a value of the wrong type are skipped, only data that isn't
+     * JSON at all fails the whole component.
+     */
+    public static Component buildComponent(File data, int task) {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new BufferedInputStream(new FileInputStream(data)), StandardCharsets.UTF_8))) {
+            String componentName = getComponentForTask(task);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(componentName) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    return readComponents(reader, task);
+                }
+                reader.skipValue();
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.e(TAG, "Could not parse " + data.getName(), e);
+        }
+        return null;
+    }
+
+    private static Component readComponents(JsonReader reader, int task) throws IOException {
+        if (task == UPDATES) {
+            return readBestUpdate(reader);
+        }
+        Component component = null;
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            if (component != null || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            component = readComponent(reader, task);
+            if (component == null) {
+                Log.e(TAG, "Could not parse update object, index=" + i);
+            }
+        }
+        return component;
+    }
+
+    private static UpdateComponent readBestUpdate(JsonReader reader) throws IOException {
+        final String channel = Version.getBuildType();
+        UpdateComponent best = null;
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            UpdateComponent candidate = (UpdateComponent) readComponent(reader, UPDATES);
+            if (candidate == null) {
+                Log.e(TAG, "Could not parse update object, index=" + i);
+            } else if (Version.isBetterCandidate(candidate, best, channel)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static Component readComponent(JsonReader reader, int task) throws IOException {
         Component component;
-        switch (task){
+        List<String> requiredFields;
+        switch (task) {
             case UPDATES:
-                component = buildUpdateComponent(object);
+                component = new UpdateComponent();
+                requiredFields = UPDATE_FIELDS;
                 break;
             case CHANGELOG:
-                component = buildChangelogComponent(object);
+                component = new ChangelogComponent();
+                requiredFields = CHANGELOG_FIELDS;
                 break;
             default:
-                component = buildOtaComponent(object);
+                component = new OtaConfigComponent();
+                requiredFields = OTA_FIELDS;
                 break;
         }
+
+        Set<String> fields = new HashSet<>();
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            try {
+                if (readField(component, name, reader)) {
+                    fields.add(name);
+                } else {
+                    reader.skipValue();
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                // The reader doesn't consume a value it couldn't convert
+                Log.e(TAG, "Invalid " + name + ": " + e.getMessage());
+                reader.skipValue();
+                valid = false;
+            }
+        }
+        reader.endObject();
+
+        if (!valid || !fields.containsAll(requiredFields)
+                || (task != CONFIG && !fields.containsAll(SHARED_FIELDS))) {
+            return null;
+        }
         return component;
     }
 
-    public static Component buildComponent(File data, int task) {
-        Component component = null;
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(data))) {
-            for (String line; (line = br.readLine()) != null;) {
-                sb.append(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static boolean readField(Component component, String name, JsonReader reader)
+            throws IOException {
+        if (component instanceof OtaConfigComponent) {
+            return readOtaField((OtaConfigComponent) component, name, reader);
+        } else if (component instanceof ChangelogComponent
+                && readChangelogField((ChangelogComponent) component, name, reader)) {
+            return true;
+        } else if (component instanceof UpdateComponent
+                && readUpdateField((UpdateComponent) component, name, reader)) {
+            return true;
         }
+        return readSharedField(component, name, reader);
+    }
 
-        JSONObject obj = null;
-        try {
-            obj = new JSONObject(sb.toString());
-        } catch (JSONException e) {
-            e.printStackTrace();
+    private static boolean readOtaField(OtaConfigComponent component, String name,
+                                        JsonReader reader) throws IOException {
+        switch (name) {
+            case "enabled":
+                component.setOtaEnabled(nextString(reader));
+                return true;
+            case "whitelist_only":
+                component.setOtaWhitelistOnly(nextString(reader));
+                return true;
         }
-        JSONArray taskData = null;
-        try {
-            if (obj != null) {
-                taskData = obj.getJSONArray(getComponentForTask(task));
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
+        return false;
+    }
+
+    private static boolean readChangelogField(ChangelogComponent component, String name,
+                                              JsonReader reader) throws IOException {
+        if ("changelog_main".equals(name)) {
+            component.setChangelog(nextString(reader));
+            return true;
         }
-        if (taskData != null) {
-            for (int i = 0; i < taskData.length(); i++) {
-                if (taskData.isNull(i)) {
-                    continue;
-                }
-                try {
-                    component = buildComponentForTask(taskData.getJSONObject(0), task);
-                } catch (JSONException e) {
-                    Log.e(TAG, "Could not parse update object, index=" + i, e);
-                }
+        return false;
+    }
+
+    private static boolean readUpdateField(UpdateComponent component, String name,
+                                           JsonReader reader) throws IOException {
+        switch (name) {
+            case "filename":
+                component.setFileName(nextString(reader));
+                return true;
+            case "datetime":
+                component.setTimestamp(reader.nextLong());
+                return true;
+            case "size":
+                component.setFileSize(reader.nextLong());
+                return true;
+            case "url":
+                component.setDownloadUrl(nextString(reader));
+                return true;
+            case "android_version":
+                component.setAndroidVersion(nextString(reader));
+                return true;
+            case "android_spl":
+                component.setAndroidSpl(nextString(reader));
+                return true;
+            case "changelog_device":
+                component.setDeviceChangelog(nextString(reader));
+                return true;
+            case "sha256":
+                component.setSha256(nextString(reader));
+                return true;
+            case "channel":
+                component.setChannel(nextString(reader));
+                return true;
+            case "incrementals":
+                readDeltas(component, reader);
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the incremental packages of a build. Bad entries are skipped on their
+     * own, the full package stays available without them.
+     */
+    private static void readDeltas(UpdateComponent component, JsonReader reader)
+            throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            Log.e(TAG, "Ignoring incrementals that aren't an array");
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            DeltaPackage delta = readDelta(reader);
+            if (delta == null) {
+                Log.e(TAG, "Could not parse incremental object, index=" + i);
+            } else {
+                component.addDelta(delta);
             }
         }
-        return component;
+        reader.endArray();
     }
 
-    private static Component buildOtaComponent(JSONObject object) throws JSONException {
-        OtaConfigComponent component = new OtaConfigComponent();
-        component.setOtaEnabled(object.getString("enabled"));
-        component.setOtaWhitelistOnly(object.getString("whitelist_only"));
-        return component;
+    private static DeltaPackage readDelta(JsonReader reader) throws IOException {
+        DeltaPackage delta = new DeltaPackage();
+        Set<String> fields = new HashSet<>();
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            try {
+                if (readDeltaField(delta, name, reader)) {
+                    fields.add(name);
+                } else {
+                    reader.skipValue();
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                Log.e(TAG, "Invalid incremental " + name + ": " + e.getMessage());
+                reader.skipValue();
+                valid = false;
+            }
+        }
+        reader.endObject();
+        return valid && fields.containsAll(DELTA_FIELDS) ? delta : null;
     }
 
-    private static Component buildChangelogComponent(JSONObject object) throws JSONException {
-        ChangelogComponent component = new ChangelogComponent();
-        component.setChangelog(object.getString("changelog_main"));
-        return buildSharedComponent(component, object);
+    private static boolean readDeltaField(DeltaPackage delta, String name, JsonReader reader)
+            throws IOException {
+        switch (name) {
+            case "source_fingerprint":
+                delta.setSourceFingerprint(nextString(reader));
+                return true;
+            case "filename":
+                delta.setFileName(nextString(reader));
+                return true;
+            case "size":
+                delta.setFileSize(reader.nextLong());
+                return true;
+            case "url":
+                delta.setDownloadUrl(nextString(reader));
+                return true;
+            case "sha256":
+                delta.setSha256(nextString(reader));
+                return true;
+        }
+        return false;
     }
 
-    private static Component buildUpdateComponent(JSONObject object) throws JSONException {
-        UpdateComponent component = new UpdateComponent();
-        component.setFileName(object.getString("filename"));
-        component.setTimestamp(object.getLong("datetime"));
-        component.setFileSize(object.getLong("size"));
-        component.setDownloadUrl(object.getString("url"));
-        component.setAndroidVersion(object.getString("android_version"));
-        component.setAndroidSpl(object.getString("android_spl"));
-        component.setDeviceChangelog(object.getString("changelog_device"));
-        return buildSharedComponent(component, object);
+    private static boolean readSharedField(Component component, String name,
+                                           JsonReader reader) throws IOException {
+        switch (name) {
+            case "version":
+                component.setVersion(nextString(reader));
+                return true;
+            case "version_code":
+                component.setVersionNumber(nextString(reader));
+                return true;
+            case "build_type":
+                component.setBuildType(nextString(reader));
+                return true;
+            case "id":
+                component.setId(nextString(reader));
+                return true;
+        }
+        return false;
     }
 
-    private static Component buildSharedComponent(
-            Component component, JSONObject object) throws JSONException {
-        component.setVersion(object.getString("version"));
-        component.setVersionNumber(object.getString("version_code"));
-        component.setBuildType(object.getString("build_type"));
-        component.setId(object.getString("id"));
-        return component;
+    /**
+     * Read a value as a string, like JSONObject.getString() coerces numbers and
+     * booleans.
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        return reader.nextString();
     }
 
     public static String getComponentForTask(int task) {
@@ -16,6 +16,12 @@
 package co.aospa.hub.components;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import co.aospa.hub.util.PayloadInfo;
+import co.aospa.hub.util.SemanticBuildVersion;
 
 public class UpdateComponent extends Component {
 
@@ -31,9 +37,17 @@ public class UpdateComponent extends Component {
     private String id;
     private File file;
     private String deviceChangelog;
+    private String sha256;
+    private String channel;
+    private final List<DeltaPackage> deltas = new ArrayList<>();
+    private DeltaPackage delta;
+    private PayloadInfo payloadInfo;
+    private BuildKey buildKey;
+    private SemanticBuildVersion semanticVersionNumber;
+    private SemanticBuildVersion semanticAndroidVersion;
 
     public String getFileName() {
-        return this.fileName;
+        return this.delta != null ? this.delta.getFileName() : this.fileName;
     }
 
     public void setFileName(String fileName) {
@@ -46,18 +60,27 @@ public class UpdateComponent extends Component {
 
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
+        this.buildKey = null;
     }
 
     public long getFileSize() {
-        return this.fileSize;
+        return this.delta != null ? this.delta.getFileSize() : this.fileSize;
     }
 
     public void setFileSize(long fileSize) {
-        this.fileSize = fileSize;
+        if (this.delta != null) {
+            this.delta.setFileSize(fileSize);
+        } else {
+            this.fileSize = fileSize;
+        }
+    }
+
+    public long getFullFileSize() {
+        return this.fileSize;
     }
 
     public String getDownloadUrl() {
-        return this.downloadUrl;
+        return this.delta != null ? this.delta.getDownloadUrl() : this.downloadUrl;
     }
 
     public void setDownloadUrl(String downloadUrl) {
@@ -82,6 +105,15 @@ public class UpdateComponent extends Component {
     @Override
     public void setVersionNumber(String versionNumber) {
         this.versionNumber = versionNumber;
+        this.semanticVersionNumber = null;
+        this.buildKey = null;
+    }
+
+    public SemanticBuildVersion getSemanticVersionNumber() {
+        if (this.semanticVersionNumber == null) {
+            this.semanticVersionNumber = SemanticBuildVersion.parse(this.versionNumber);
+        }
+        return this.semanticVersionNumber;
     }
 
     @Override
@@ -102,6 +134,15 @@ public class UpdateComponent extends Component {
     @Override
     public void setAndroidVersion(String androidVersion) {
         this.androidVersion = androidVersion;
+        this.semanticAndroidVersion = null;
+        this.buildKey = null;
+    }
+
+    public SemanticBuildVersion getSemanticAndroidVersion() {
+        if (this.semanticAndroidVersion == null) {
+            this.semanticAndroidVersion = SemanticBuildVersion.parse(this.androidVersion);
+        }
+        return this.semanticAndroidVersion;
     }
 
     @Override
@@ -132,6 +173,7 @@ public class UpdateComponent extends Component {
     @Override
     public void setFile(File file) {
         this.file = file;
+        this.payloadInfo = null;
     }
 
     @Override
@@ -143,4 +185,84 @@ public class UpdateComponent extends Component {
     public void setDeviceChangelog(String deviceChangelog) {
         this.deviceChangelog = deviceChangelog;
     }
+
+    public String getSha256() {
+        return this.delta != null ? this.delta.getSha256() : this.sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getChannel() {
+        return this.channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public void addDelta(DeltaPackage delta) {
+        this.deltas.add(delta);
+    }
+
+    /**
+     * Find the incremental package that applies on top of the given build.
+     *
+     * @return the package, or null if the full package has to be used
+     */
+    public DeltaPackage findDelta(String sourceFingerprint) {
+        if (sourceFingerprint == null || sourceFingerprint.isEmpty()) {
+            return null;
+        }
+        for (DeltaPackage delta : this.deltas) {
+            if (Objects.equals(delta.getSourceFingerprint(), sourceFingerprint)) {
+                return delta;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Download and install the given incremental package instead of the full one.
+     * The file name, size, url and digest of the component are the ones of the
+     * incremental package from then on, pass null to go back to the full package.
+     */
+    public void setDelta(DeltaPackage delta) {
+        this.delta = delta;
+        this.payloadInfo = null;
+    }
+
+    public DeltaPackage getDelta() {
+        return this.delta;
+    }
+
+    /**
+     * Get the number of bytes saved by downloading the incremental package.
+     */
+    public long getSavedBytes() {
+        if (this.delta == null || this.fileSize <= 0) {
+            return 0;
+        }
+        return Math.max(0, this.fileSize - this.delta.getFileSize());
+    }
+
+    public PayloadInfo getPayloadInfo() {
+        return this.payloadInfo;
+    }
+
+    public void setPayloadInfo(PayloadInfo payloadInfo) {
+        this.payloadInfo = payloadInfo;
+    }
+
+    /**
+     * Get the key ordering this build among the other builds of the feed. It is
+     * computed on first use, once the component has been parsed.
+     */
+    public BuildKey getBuildKey() {
+        if (this.buildKey == null) {
+            this.buildKey = BuildKey.of(this);
+        }
+        return this.buildKey;
+    }
 }
@@ -18,24 +18,19 @@ package co.aospa.hub.controllers;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.os.SystemClock;
 import android.os.UpdateEngine;
 import android.os.UpdateEngineCallback;
 import android.util.Log;
 
+import co.aospa.hub.client.RemotePayload;
 import co.aospa.hub.components.UpdateComponent;
 import co.aospa.hub.util.Constants;
-import co.aospa.hub.util.PreferenceHelper;
+import co.aospa.hub.util.PayloadInfo;
 import co.aospa.hub.util.Update;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public class ABUpdateController extends UpdateEngineCallback {
 
@@ -51,6 +46,7 @@ public class ABUpdateController extends UpdateEngineCallback {
     private boolean mBound;
 
     private int mProgress = 0;
+    private long mInstallStart;
 
     private ABUpdateController(Context context, UpdateController controller) {
         mController = controller;
@@ -83,29 +79,39 @@ public class ABUpdateController extends UpdateEngineCallback {
         //noinspection ResultOfMethodCallIgnored
         file.setReadable(true, false);
 
-        long offset;
-        String[] headerKeyValuePairs;
+        PayloadInfo payload;
         try {
-            ZipFile zipFile = new ZipFile(file);
-            offset = Update.getZipEntryOffset(zipFile, Constants.AB_PAYLOAD_BIN_PATH);
-            ZipEntry payloadPropEntry = zipFile.getEntry(Constants.AB_PAYLOAD_PROPERTIES_PATH);
-            try (InputStream is = zipFile.getInputStream(payloadPropEntry);
-                 InputStreamReader isr = new InputStreamReader(is);
-                 BufferedReader br = new BufferedReader(isr)) {
-                List<String> lines = new ArrayList<>();
-                for (String line; (line = br.readLine()) != null;) {
-                    lines.add(line);
-                }
-                headerKeyValuePairs = new String[lines.size()];
-                headerKeyValuePairs = lines.toArray(headerKeyValuePairs);
+            payload = Update.getPayloadInfo(mComponent);
+            if (payload == null) {
+                throw new IOException("No payload in " + file);
             }
-            zipFile.close();
-        } catch (IOException | IllegalArgumentException e) {
+        } catch (IOException e) {
             Log.e(TAG, "Could not prepare " + file, e);
             setUpdateStatus(UpdateController.StatusType.INSTALL_ERROR, -1);
             return;
         }
 
+        String zipFileUri = "file://" + file.getAbsolutePath();
+        applyPayload(zipFileUri, payload.getOffset(), 0, payload.getProperties());
+    }
+
+    /**
+     * Install the update while its payload is downloaded by update_engine. The
+     * package is never stored on the device.
+     */
+    public void install(UpdateComponent component, RemotePayload payload) {
+        Log.d(TAG, "Streaming a/b update from " + payload.getUrl());
+        if (isInstalling(mContext)) {
+            Log.e(TAG, "Already installing an update");
+            return;
+        }
+        mComponent = component;
+        PayloadInfo payloadInfo = payload.getPayloadInfo();
+        applyPayload(payload.getUrl(), payloadInfo.getOffset(), payloadInfo.getSize(),
+                payloadInfo.getProperties());
+    }
+
+    private void applyPayload(String url, long offset, long size, String[] headerKeyValuePairs) {
         if (!mBound) {
             mBound = mUpdateEngine.bind(this);
             if (!mBound) {
@@ -117,10 +123,9 @@ public class ABUpdateController extends UpdateEngineCallback {
 
         mUpdateEngine.setPerformanceMode(Constants.USE_AB_PERFORMANCE_MODE);
 
-        String zipFileUri = "file://" + file.getAbsolutePath();
-        mUpdateEngine.applyPayload(zipFileUri, offset, 0, headerKeyValuePairs);
+        mInstallStart = SystemClock.elapsedRealtime();
+        mUpdateEngine.applyPayload(url, offset, size, headerKeyValuePairs);
         setUpdateStatus(UpdateController.StatusType.INSTALL, mProgress);
-
     }
 
     private void setUpdateStatus(int status, int progress) {
@@ -131,9 +136,8 @@ public class ABUpdateController extends UpdateEngineCallback {
         mController.notifyUpdateListener(status, progress);
     }
 
-    public static synchronized boolean isInstalling(Context context) {
-        PreferenceHelper preferenceHelper = new PreferenceHelper(context);
-        int updateStatus = preferenceHelper.getIntValueByKey(Constants.KEY_UPDATE_STATUS);
+    public static boolean isInstalling(Context context) {
+        int updateStatus = UpdateController.get(context).getUpdateStatus();
         return (updateStatus == UpdateController.StatusType.INSTALL
                 || updateStatus == UpdateController.StatusType.FINALIZE);
     }
@@ -154,6 +158,11 @@ public class ABUpdateController extends UpdateEngineCallback {
             }
             break;
             case UpdateEngine.UpdateStatusConstants.UPDATED_NEED_REBOOT: {
+                if (mComponent != null && mInstallStart > 0) {
+                    Log.d(TAG, "Installed " + (mComponent.getDelta() != null ? "incremental" : "full")
+                            + " package in " + (SystemClock.elapsedRealtime() - mInstallStart) + " ms");
+                    mInstallStart = 0;
+                }
                 setUpdateStatus(UpdateController.StatusType.REBOOT, -1);
                 Log.d(TAG, "onStatusUpdate: update engine - needs reboot");
             }
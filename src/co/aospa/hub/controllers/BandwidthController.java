@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.controllers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.util.Log;
+
+import co.aospa.hub.R;
+import co.aospa.hub.client.RateLimiter;
+import co.aospa.hub.util.App;
+import co.aospa.hub.util.Constants;
+import co.aospa.hub.util.PreferenceHelper;
+
+/**
+ * Sets the download rate from the user's limit, the active network and the
+ * battery state, and keeps it up to date while downloads are running.
+ */
+public class BandwidthController {
+
+    private static final String TAG = "BandwidthController";
+
+    private static final int LOW_BATTERY_LEVEL = 20;
+
+    private final Context mContext;
+    private final RateLimiter mRateLimiter = new RateLimiter();
+
+    private boolean mMonitoring;
+    private boolean mLowBattery;
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            updateRate();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            updateRate();
+        }
+    };
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                updateBattery(intent);
+            }
+            updateRate();
+        }
+    };
+
+    BandwidthController(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    RateLimiter getRateLimiter() {
+        return mRateLimiter;
+    }
+
+    /**
+     * Start following the network and battery state. Called when a download starts.
+     */
+    synchronized void start() {
+        if (mMonitoring) {
+            return;
+        }
+        mMonitoring = true;
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        Intent battery = mContext.registerReceiver(mBatteryReceiver, filter);
+        if (battery != null) {
+            updateBattery(battery);
+        }
+        mContext.getSystemService(ConnectivityManager.class)
+                .registerDefaultNetworkCallback(mNetworkCallback);
+        updateRate();
+    }
+
+    /**
+     * Stop following the network and battery state once no download is running.
+     */
+    synchronized void stop() {
+        if (!mMonitoring) {
+            return;
+        }
+        mMonitoring = false;
+        mContext.unregisterReceiver(mBatteryReceiver);
+        mContext.getSystemService(ConnectivityManager.class)
+                .unregisterNetworkCallback(mNetworkCallback);
+    }
+
+    /**
+     * Set the maximum download rate chosen by the user in bytes per second, or
+     * {@link RateLimiter#UNLIMITED}.
+     */
+    public void setMaxRate(long rate) {
+        PreferenceHelper preferenceHelper = new PreferenceHelper(mContext);
+        preferenceHelper.saveLongValue(Constants.KEY_DOWNLOAD_MAX_RATE, rate);
+        updateRate();
+    }
+
+    public long getMaxRate() {
+        PreferenceHelper preferenceHelper = new PreferenceHelper(mContext);
+        return preferenceHelper.getLongValueByKey(Constants.KEY_DOWNLOAD_MAX_RATE,
+                RateLimiter.UNLIMITED);
+    }
+
+    private synchronized void updateBattery(Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        boolean plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        mLowBattery = !plugged && level >= 0 && scale > 0
+                && level * 100 / scale <= LOW_BATTERY_LEVEL;
+    }
+
+    private synchronized void updateRate() {
+        long rate = getMaxRate();
+        if (App.isNetworkMetered(mContext)) {
+            rate = cap(rate, R.integer.config_meteredDownloadRate);
+        }
+        PowerManager powerManager = mContext.getSystemService(PowerManager.class);
+        if (mLowBattery || powerManager.isPowerSaveMode()) {
+            rate = cap(rate, R.integer.config_lowBatteryDownloadRate);
+        }
+        if (rate != mRateLimiter.getRate()) {
+            Log.d(TAG, "Download rate is now "
+                    + (rate == RateLimiter.UNLIMITED ? "unlimited" : rate + " bytes/s"));
+            mRateLimiter.setRate(rate);
+        }
+    }
+
+    private long cap(long rate, int capRes) {
+        long cap = mContext.getResources().getInteger(capRes) * 1024L;
+        if (cap == RateLimiter.UNLIMITED) {
+            return rate;
+        }
+        return rate == RateLimiter.UNLIMITED ? cap : Math.min(rate, cap);
+    }
+}
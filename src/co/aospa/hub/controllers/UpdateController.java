@@ -18,6 +18,7 @@ package co.aospa.hub.controllers;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.os.Handler;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
@@ -33,33 +34,44 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import co.aospa.hub.R;
 import co.aospa.hub.client.DownloadClient;
+import co.aospa.hub.client.DownloadJournal;
+import co.aospa.hub.client.RemotePayload;
+import co.aospa.hub.components.DeltaPackage;
 import co.aospa.hub.components.UpdateComponent;
 import co.aospa.hub.util.App;
+import co.aospa.hub.util.BuildInfo;
 import co.aospa.hub.util.Constants;
 import co.aospa.hub.util.FileUtils;
-import co.aospa.hub.util.PreferenceHelper;
+import co.aospa.hub.util.HubExecutors;
 import co.aospa.hub.util.Update;
 import co.aospa.hub.util.Version;
+import co.aospa.hub.util.ZipIndex;
 
 public class UpdateController {
 
     private static final String TAG = "UpdateController";
 
     private static final int MAX_REPORT_INTERVAL_MS = 1000;
+    private static final int MAX_DOWNLOAD_CONNECTIONS = 4;
 
     private final Context mContext;
     private final File mDownloadPath;
     private File mFilePath;
     private final PowerManager.WakeLock mWakeLock;
+    private final Handler mHandler;
+    private final BandwidthController mBandwidthController;
+    private final UpdateStatusStore mStatusStore;
     @SuppressLint("StaticFieldLeak")
     private static UpdateController sController;
 
     private final List<UpdateController.UpdateListener> mListeners = new ArrayList<>();
     private final Map<String, DownloadEntry> mDownloads = new HashMap<>();
-    private final Set<String> mVerifyingUpdates = new HashSet<>();
+    // Added on the caller's thread, removed on the cpu executor
+    private final Set<String> mVerifyingUpdates = ConcurrentHashMap.newKeySet();
     private static final Set<PosixFilePermission> mFilePermissions = new HashSet<>();
 
     private int mActiveDownloads = 0;
@@ -91,30 +103,79 @@ public class UpdateController {
         PowerManager powerManager = context.getSystemService(PowerManager.class);
         mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "hub:wakelock");
         mWakeLock.setReferenceCounted(false);
+        mHandler = new Handler(mContext.getMainLooper());
+        mBandwidthController = new BandwidthController(mContext);
+        mStatusStore = new UpdateStatusStore(mContext);
     }
 
-    @SuppressLint("WakelockTimeout")
     public void startDownload(UpdateComponent updateComponent) {
         if (ABUpdateController.isInstalling(mContext)) {
             notifyUpdateListener(StatusType.INSTALL, -1);
             return;
         }
         String id = updateComponent.getId();
-        mDownloads.put(id, new DownloadEntry(updateComponent));
-        Log.d(TAG, "Starting download for " + id);
-        if (!mDownloads.containsKey(id) || isDownloading(id)) {
+        if (isDownloading(id)) {
             return;
         }
+        mDownloads.put(id, new DownloadEntry(updateComponent));
+        Log.d(TAG, "Starting download for " + id);
         DownloadEntry entry = mDownloads.get(id);
         if (entry == null) {
             Log.e(TAG, "Could not get download entry");
             return;
         }
+        selectPackage(entry.mComponent);
+        if (shouldStreamUpdate()) {
+            streamUpdate(id, entry);
+        } else {
+            downloadPackage(id, entry);
+        }
+    }
+
+    private boolean shouldStreamUpdate() {
+        return Update.isABDevice()
+                && mContext.getResources().getBoolean(R.bool.config_enableStreamingInstall);
+    }
+
+    /**
+     * Let update_engine download and apply the payload at the same time. If the
+     * payload can't be located in the remote package, it is downloaded instead.
+     */
+    @SuppressLint("WakelockTimeout")
+    private void streamUpdate(String id, DownloadEntry entry) {
+        PayloadResolver resolver = new PayloadResolver(id, entry);
+        addDownloadClient(entry, resolver);
+        notifyUpdateListener(StatusType.STARTING, 0);
+        resolver.start();
+        mWakeLock.acquire();
+    }
+
+    private void onPayloadResolved(PayloadResolver resolver, RemotePayload payload) {
+        DownloadEntry entry = resolver.mEntry;
+        if (entry.mDownloadClient != resolver) {
+            // Cancelled while the payload was being located
+            tryReleaseWakelock();
+            return;
+        }
+        removeDownloadClient(entry);
+        if (payload == null) {
+            downloadPackage(resolver.mId, entry);
+        } else {
+            ABUpdateController controller = ABUpdateController.getInstance(mContext,
+                    sController);
+            controller.install(entry.mComponent, payload);
+        }
+        tryReleaseWakelock();
+    }
+
+    @SuppressLint("WakelockTimeout")
+    private void downloadPackage(String id, DownloadEntry entry) {
         UpdateComponent component = entry.mComponent;
         File filePath = new File(mDownloadPath, component.getFileName());
         if (filePath.exists()) {
             //noinspection ResultOfMethodCallIgnored
             filePath.delete();
+            ZipIndex.evict(filePath);
             filePath = new File(mDownloadPath, component.getFileName());
             Log.d(TAG, "Creating new file path with " + filePath.getName());
         }
@@ -129,6 +190,9 @@ public class UpdateController {
                     .setDownloadCallback(getDownloadCallback(id))
                     .setProgressListener(getProgressListener(id))
                     .setUseDuplicateLinks(true)
+                    .setMaxConnections(MAX_DOWNLOAD_CONNECTIONS)
+                    .setComputeDigest(component.getSha256() != null)
+                    .setRateLimiter(mBandwidthController.getRateLimiter())
                     .build();
         } catch (IOException exception) {
             Log.e(TAG, "Could not build download client");
@@ -137,10 +201,26 @@ public class UpdateController {
         }
         addDownloadClient(entry, downloadClient);
         notifyUpdateListener(StatusType.STARTING, 0);
+        mBandwidthController.start();
         downloadClient.start();
         mWakeLock.acquire();
     }
 
+    /**
+     * Use the incremental package of the update when there is one for the running
+     * build, and the full package otherwise.
+     */
+    private void selectPackage(UpdateComponent component) {
+        DeltaPackage delta = component.findDelta(BuildInfo.get().getFingerprint());
+        component.setDelta(delta);
+        if (delta != null) {
+            Log.d(TAG, "Using incremental package " + delta.getFileName() + ", "
+                    + component.getSavedBytes() + " bytes less than the full package");
+        } else {
+            Log.d(TAG, "No incremental package for this build, using the full package");
+        }
+    }
+
     public void cancelOrPauseDownload(UpdateComponent component, boolean cancel) {
         String id = component.getId();
         Log.d(TAG, cancel ? "Cancel " : "Pause " + "download for " + id);
@@ -150,6 +230,8 @@ public class UpdateController {
 
         DownloadEntry entry = mDownloads.get(id);
         if (entry != null) {
+            // A stream that hasn't reached update_engine has nothing to resume from
+            cancel |= entry.mDownloadClient instanceof PayloadResolver;
             entry.mDownloadClient.cancel();
             removeDownloadClient(entry);
             if (cancel) {
@@ -185,16 +267,13 @@ public class UpdateController {
             notifyUpdateListener(StatusType.DOWNLOAD_ERROR, -1);
             return;
         }
-        if (file.exists() && component.getFileSize() > 0 && file.length() >= component.getFileSize()) {
+        // Segmented downloads write ranges out of order, so the file length alone
+        // doesn't tell whether the download completed. When there is a journal, the
+        // client re-checks the committed chunks and only fetches the missing ones.
+        if (!DownloadJournal.exists(file) && entry.mDownloaded && component.getFileSize() > 0
+                && file.length() >= component.getFileSize()) {
             Log.d(TAG, "File already downloaded, starting verification");
-            if (shouldVerifyUpdate()){
-                verifyUpdate(id);
-                notifyUpdateListener(StatusType.VERIFY, 0);
-            } else {
-                Log.d(TAG, "Skipping pre-existing download verification because it is disabled");
-                notifyUpdateListener(StatusType.INSTALL, 0);
-                installUpdate(entry.mComponent);
-            }
+            verifyOrInstallUpdate(entry);
         } else {
             DownloadClient downloadClient;
             try {
@@ -204,6 +283,9 @@ public class UpdateController {
                         .setDownloadCallback(getDownloadCallback(id))
                         .setProgressListener(getProgressListener(id))
                         .setUseDuplicateLinks(true)
+                        .setMaxConnections(MAX_DOWNLOAD_CONNECTIONS)
+                        .setComputeDigest(component.getSha256() != null)
+                        .setRateLimiter(mBandwidthController.getRateLimiter())
                         .build();
             } catch (IOException exception) {
                 Log.e(TAG, "Could not build download client");
@@ -212,6 +294,7 @@ public class UpdateController {
             }
             addDownloadClient(entry, downloadClient);
             notifyUpdateListener(StatusType.STARTING, 0);
+            mBandwidthController.start();
             downloadClient.resume();
             mWakeLock.acquire();
         }
@@ -221,6 +304,7 @@ public class UpdateController {
         return new DownloadClient.ProgressListener() {
             private long mLastUpdate = 0;
             private int mProgress = 0;
+            private int mBufferSize = 0;
 
             @Override
             public void update(long bytesRead, long contentLength, long speed, long eta, boolean done) {
@@ -247,6 +331,15 @@ public class UpdateController {
                     notifyUpdateListener(StatusType.DOWNLOAD, progress);
                 }
             }
+
+            @Override
+            public void updateTransferStats(int bufferSize, long syscallRate) {
+                if (bufferSize != mBufferSize) {
+                    Log.d(TAG, "Download buffer is now " + bufferSize + " bytes, "
+                            + syscallRate + " reads and writes per second");
+                    mBufferSize = bufferSize;
+                }
+            }
         };
     }
 
@@ -278,15 +371,12 @@ public class UpdateController {
                 Log.d(TAG, "Download complete");
                 DownloadEntry entry = mDownloads.get(id);
                 if (entry != null) {
-                    removeDownloadClient(entry);
-                    if (shouldVerifyUpdate()){
-                        verifyUpdate(id);
-                        notifyUpdateListener(StatusType.VERIFY, 0);
-                    } else {
-                        Log.d(TAG, "Skipping download verification because it is disabled");
-                        notifyUpdateListener(StatusType.INSTALL, -1);
-                        installUpdate(entry.mComponent);
+                    entry.mDownloaded = true;
+                    if (entry.mDownloadClient != null) {
+                        entry.mDigest = entry.mDownloadClient.getDigest();
                     }
+                    removeDownloadClient(entry);
+                    verifyOrInstallUpdate(entry);
                     tryReleaseWakelock();
                 }
             }
@@ -309,8 +399,10 @@ public class UpdateController {
     }
 
     private void installUpdate(UpdateComponent component) {
+        // The package is complete and checked, resuming it is no longer possible
+        DownloadJournal.delete(component.getFile());
         try {
-            if (Update.isABDevice() && Update.isABUpdate(component.getFile())) {
+            if (Update.isABDevice() && Update.getPayloadInfo(component) != null) {
                 ABUpdateController controller = ABUpdateController.getInstance(mContext,
                         sController);
                 controller.install(component);
@@ -341,7 +433,7 @@ public class UpdateController {
 
     private void installRecoveryPackage(File update) {
         // Reset the update status now that the update is applied
-        setUpdateStatus(-1);
+        mStatusStore.setStatusNow(-1);
         try {
             android.os.RecoverySystem.installPackage(mContext, update);
         } catch (IOException e) {
@@ -350,6 +442,43 @@ public class UpdateController {
         }
     }
 
+    /**
+     * Check the digest computed while downloading against the one published with
+     * the update. The full package verification only runs when there is no digest
+     * to compare with, since it has to read the whole package again.
+     */
+    @SuppressLint("SetWorldReadable")
+    private void verifyOrInstallUpdate(DownloadEntry entry) {
+        UpdateComponent component = entry.mComponent;
+        String expectedDigest = component.getSha256();
+        if (expectedDigest != null && entry.mDigest != null) {
+            File file = component.getFile();
+            if (!expectedDigest.equalsIgnoreCase(entry.mDigest)) {
+                Log.e(TAG, "Digest mismatch, expected " + expectedDigest
+                        + " but got " + entry.mDigest);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                DownloadJournal.delete(file);
+                ZipIndex.evict(file);
+                entry.mDownloaded = false;
+                notifyUpdateListener(StatusType.VERIFY_ERROR, -1);
+                return;
+            }
+            Log.d(TAG, "Digest matches, skipping package verification");
+            //noinspection ResultOfMethodCallIgnored
+            file.setReadable(true, false);
+            notifyUpdateListener(StatusType.INSTALL, -1);
+            installUpdate(component);
+        } else if (shouldVerifyUpdate()) {
+            verifyUpdate(component.getId());
+            notifyUpdateListener(StatusType.VERIFY, 0);
+        } else {
+            Log.d(TAG, "Skipping download verification because it is disabled");
+            notifyUpdateListener(StatusType.INSTALL, -1);
+            installUpdate(component);
+        }
+    }
+
     private boolean shouldVerifyUpdate() {
         boolean useDownloadVerification =
                 mContext.getResources().getBoolean(R.bool.config_enableDownloadVerification);
@@ -360,7 +489,7 @@ public class UpdateController {
     private void verifyUpdate(final String id) {
         Log.d(TAG, "verifying downloaded update");
         mVerifyingUpdates.add(id);
-        new Thread(() -> {
+        HubExecutors.cpu().execute(() -> {
             DownloadEntry entry = mDownloads.get(id);
             if (entry != null) {
                 UpdateComponent component = entry.mComponent;
@@ -375,7 +504,7 @@ public class UpdateController {
                 }
                 mVerifyingUpdates.remove(id);
             }
-        }).start();
+        });
     }
 
     private boolean verifyPackage(File file) {
@@ -388,6 +517,8 @@ public class UpdateController {
             if (file.exists()) {
                 //noinspection ResultOfMethodCallIgnored
                 file.delete();
+                DownloadJournal.delete(file);
+                ZipIndex.evict(file);
             } else {
                 Log.e(TAG, "Error while verifying the file", e);
             }
@@ -398,13 +529,14 @@ public class UpdateController {
     private void tryReleaseWakelock() {
         if (!hasActiveDownloads()) {
             mWakeLock.release();
+            mBandwidthController.stop();
         }
     }
 
     private synchronized void prepareForUncryptAndInstall(UpdateComponent component) {
         String uncryptFilePath = component.getFile().getAbsolutePath() + Constants.UNCRYPT_FILE_EXT;
         File uncryptFile = new File(uncryptFilePath);
-        Thread thread = new Thread(new Runnable() {
+        HubExecutors.io().execute(new Runnable() {
             private long mLastUpdate = -1;
 
             final FileUtils.ProgressCallBack mProgressCallBack = progress -> {
@@ -435,7 +567,6 @@ public class UpdateController {
                 }
             }
         });
-        thread.start();
         notifyUpdateListener(StatusType.INSTALL, 0);
     }
 
@@ -444,6 +575,10 @@ public class UpdateController {
         notificationController.showNotification(notificationType, null);
     }
 
+    public BandwidthController getBandwidthController() {
+        return mBandwidthController;
+    }
+
     public boolean hasActiveDownloads() {
         return mActiveDownloads > 0;
     }
@@ -462,13 +597,11 @@ public class UpdateController {
     }
 
     public int getUpdateStatus() {
-        PreferenceHelper preferenceHelper = new PreferenceHelper(mContext);
-        return preferenceHelper.getIntValueByKey(Constants.KEY_UPDATE_STATUS);
+        return mStatusStore.getStatus();
     }
 
     public void setUpdateStatus(int status) {
-        PreferenceHelper preferenceHelper = new PreferenceHelper(mContext);
-        preferenceHelper.saveIntValue(Constants.KEY_UPDATE_STATUS, status);
+        mStatusStore.setStatus(status);
     }
 
     private void addDownloadClient(DownloadEntry entry, DownloadClient client) {
@@ -506,9 +639,64 @@ public class UpdateController {
         void onUpdateStatusChanged(int status, int progress);
     }
 
+    /**
+     * Stands in for the download client of a streamed update until the payload is
+     * handed to update_engine, so the update counts as downloading and can be
+     * cancelled until then. The result is posted back to the main thread.
+     */
+    private class PayloadResolver implements DownloadClient {
+        private final String mId;
+        private final DownloadEntry mEntry;
+        private volatile boolean mCancelled;
+
+        private PayloadResolver(String id, DownloadEntry entry) {
+            mId = id;
+            mEntry = entry;
+        }
+
+        @Override
+        public void start() {
+            final String url = mEntry.mComponent.getDownloadUrl();
+            HubExecutors.io().execute(() -> {
+                RemotePayload payload = null;
+                if (!mCancelled) {
+                    try {
+                        payload = RemotePayload.resolve(url);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not stream " + mId + ", downloading it instead", e);
+                    }
+                }
+                final RemotePayload resolved = payload;
+                mHandler.post(() -> onPayloadResolved(this, resolved));
+            });
+        }
+
+        @Override
+        public void resume() {
+            start();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public String getDigest() {
+            return null;
+        }
+
+        @Override
+        public boolean isNotModified() {
+            return false;
+        }
+    }
+
     private static class DownloadEntry {
         final UpdateComponent mComponent;
         DownloadClient mDownloadClient;
+        boolean mDownloaded;
+        String mDigest;
         private DownloadEntry(UpdateComponent component) {
             mComponent = component;
         }
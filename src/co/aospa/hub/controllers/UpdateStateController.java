@@ -19,15 +19,15 @@ import static co.aospa.hub.client.ClientConnector.TaskType.CHANGELOG;
 import static co.aospa.hub.client.ClientConnector.TaskType.UPDATES;
 
 import android.content.Context;
-import android.content.Intent;
 import android.os.Handler;
 import android.util.Log;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-import co.aospa.hub.UpdateStateService;
 import co.aospa.hub.client.ClientConnector;
 import co.aospa.hub.components.ChangelogComponent;
 import co.aospa.hub.components.Component;
@@ -36,6 +36,7 @@ import co.aospa.hub.components.OtaConfigComponent;
 import co.aospa.hub.components.UpdateComponent;
 import co.aospa.hub.controllers.UpdateController.StatusType;
 import co.aospa.hub.ui.State;
+import co.aospa.hub.ui.StateSnapshot;
 import co.aospa.hub.ui.state.UpdateAvailableState;
 import co.aospa.hub.ui.state.UpdateCheckingState;
 import co.aospa.hub.ui.state.UpdateDownloadErrorState;
@@ -47,6 +48,7 @@ import co.aospa.hub.ui.state.UpdateRebootState;
 import co.aospa.hub.ui.state.UpdateUnavailableState;
 import co.aospa.hub.ui.state.UpdateVerificationErrorState;
 import co.aospa.hub.util.Constants;
+import co.aospa.hub.util.HubExecutors;
 import co.aospa.hub.util.PreferenceHelper;
 import co.aospa.hub.util.Update;
 import co.aospa.hub.util.Version;
@@ -60,10 +62,17 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
     private final UpdateController mUpdateController;
     private static UpdateStateController sStateController;
     private final List<StateListener> mListeners = new ArrayList<>();
-
-    private OtaConfigComponent mOtaComponent;
-    private ChangelogComponent mChangelogComponent;
-    private UpdateComponent mUpdateComponent;
+    // Components still being fetched, the state is computed once they all landed
+    private final Set<Integer> mPendingTasks = new HashSet<>();
+    private final Handler mHandler;
+    private final Object mRenderLock = new Object();
+    private StateSnapshot mPendingSnapshot;
+    // Only used on the main thread
+    private StateSnapshot mLastSnapshot;
+
+    private volatile OtaConfigComponent mOtaComponent;
+    private volatile ChangelogComponent mChangelogComponent;
+    private volatile UpdateComponent mUpdateComponent;
 
     public static synchronized UpdateStateController get(Context context) {
         if (sStateController == null) {
@@ -74,6 +83,7 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
 
     private UpdateStateController(Context context) {
         mContext = context.getApplicationContext();
+        mHandler = new Handler(mContext.getMainLooper());
         mClientConnector = new ClientConnector(mContext);
         mClientConnector.addClientStatusListener(this);
 
@@ -90,20 +100,72 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
                     preferenceHelper.saveLongValue(Constants.KEY_LAST_UPDATE_CHECK, millis);
                     State state = new UpdateCheckingState();
                     updateState(state);
-                    mClientConnector.initComponent(component);
+                    fetchComponents(ComponentBuilder.COMPONENT_CONFIG,
+                            ComponentBuilder.COMPONENT_CHANGELOG, component);
                 }
                 break;
             case ComponentBuilder.COMPONENT_CHANGELOG:
-                mClientConnector.initComponent(component);
+                fetchComponents(component);
                 break;
             default:
                 State state = new UpdateCheckingState();
                 updateState(state);
-                mClientConnector.initComponent(component);
+                loadCachedUpdate();
+                fetchComponents(component, ComponentBuilder.COMPONENT_CHANGELOG);
                 break;
         }
-        if (!userRequested) {
-            queueCachedUpdateRequest();
+    }
+
+    /**
+     * Fetch the given components at the same time. The state is only computed
+     * once every component that was requested has landed or failed.
+     */
+    private void fetchComponents(String... components) {
+        synchronized (mPendingTasks) {
+            for (String component : components) {
+                mPendingTasks.add(ComponentBuilder.getTaskForComponent(component));
+            }
+        }
+        for (String component : components) {
+            mClientConnector.initComponent(component);
+        }
+    }
+
+    private void onComponentFetched(File data, int task) {
+        if (data != null) {
+            updateComponent(data, task);
+        }
+        boolean done;
+        synchronized (mPendingTasks) {
+            done = mPendingTasks.remove(task) && mPendingTasks.isEmpty();
+        }
+        if (done) {
+            prepareDescription();
+            queueUpdateRequestState();
+        }
+    }
+
+    /**
+     * Build and parse the update description while still off the main thread,
+     * every state of the update then shows it as is.
+     */
+    private void prepareDescription() {
+        UpdateComponent updateComponent = mUpdateComponent;
+        ChangelogComponent changelogComponent = mChangelogComponent;
+        if (updateComponent != null && changelogComponent != null) {
+            Update update = new Update(updateComponent, changelogComponent);
+            update.getUpdateDescription(mContext);
+        }
+    }
+
+    private void loadCachedUpdate() {
+        if (mUpdateComponent != null) {
+            return;
+        }
+        File data = Update.getCachedUpdate(mContext);
+        if (data.exists()) {
+            Log.d(TAG, "Updating update component with cached update");
+            updateComponent(data, UPDATES);
         }
     }
 
@@ -111,49 +173,32 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
         switch (task) {
             case UPDATES:
                 mUpdateComponent = (UpdateComponent) ComponentBuilder.buildComponent(data, task);
-                queueUpdateRequestState();
                 break;
             case CHANGELOG:
                 mChangelogComponent = (ChangelogComponent) ComponentBuilder.buildComponent(data, task);
-                queueUpdateRequestStateInCycle();
                 break;
             default:
                 mOtaComponent = (OtaConfigComponent) ComponentBuilder.buildComponent(data, task);
-                updateComponentInCycle();
                 break;
 
         }
     }
 
     private void queueUpdateRequestState() {
-        if (mOtaComponent != null) {
-            if (!mOtaComponent.isEnabledFromServer()) {
-                State state = new UpdateUnavailableState();
-                updateState(state);
-                Log.d(TAG, "Updates are disabled from server, ignoring request");
-                return;
-            }
-            Log.d(TAG, ":queueUpdateRequest");
-            UpdateRequestStateTask requestTask = new UpdateRequestStateTask(this);
-            requestTask.start(mUpdateComponent != null ? mUpdateComponent : null, false);
+        if (mOtaComponent == null) {
+            Log.d(TAG, "Could not get the ota configuration, setting unavailable state");
+            updateState(new UpdateUnavailableState());
+            return;
         }
-    }
-
-    private void queueCachedUpdateRequest() {
-        if (mUpdateComponent == null) {
-            UpdateRequestStateTask requestTask = new UpdateRequestStateTask(this);
-            requestTask.start(null, true);
+        if (!mOtaComponent.isEnabledFromServer()) {
+            State state = new UpdateUnavailableState();
+            updateState(state);
+            Log.d(TAG, "Updates are disabled from server, ignoring request");
+            return;
         }
-    }
-
-    private void queueUpdateRequestStateInCycle() {
-        queueUpdateRequestState();
-    }
-
-    private void updateComponentInCycle() {
-        Intent intent = new Intent(mContext, UpdateStateService.class);
-        intent.setAction(Constants.INTENT_ACTION_UPDATE_CHANGELOG);
-        mContext.startService(intent);
+        Log.d(TAG, ":queueUpdateRequest");
+        UpdateRequestStateTask requestTask = new UpdateRequestStateTask(this);
+        requestTask.start(mUpdateComponent);
     }
 
     private void updateState(State state, int progress) {
@@ -216,36 +261,82 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
         return mUpdateController;
     }
 
+    /**
+     * Add a listener, it is given the current state right away if there is one.
+     * Must be called on the main thread.
+     */
     public void addUpdateStateListener(StateListener listener) {
         mListeners.add(listener);
+        if (mLastSnapshot != null) {
+            listener.onUpdateStateChanged(mLastSnapshot);
+        }
     }
 
     public void removeUpdateStateListener(StateListener listener) {
         mListeners.remove(listener);
     }
 
+    /**
+     * Snapshot the state and have it rendered on the main thread. Snapshots taken
+     * while one is waiting to be rendered replace it, so a burst of progress
+     * updates only renders the latest one.
+     */
     private void notifyStateListeners(State state, int progress) {
-        Handler handler = new Handler(mContext.getMainLooper());
-        handler.post(() -> {
-            for (StateListener listener : mListeners) {
-                listener.onUpdateStateChanged(state, progress);
-            }
-        });
+        if (state == null) {
+            return;
+        }
+        StateSnapshot snapshot = StateSnapshot.of(mContext, state, progress);
+        boolean post;
+        synchronized (mRenderLock) {
+            post = mPendingSnapshot == null;
+            mPendingSnapshot = snapshot;
+        }
+        if (post) {
+            mHandler.post(this::renderPendingSnapshot);
+        }
+    }
+
+    private void renderPendingSnapshot() {
+        StateSnapshot snapshot;
+        synchronized (mRenderLock) {
+            snapshot = mPendingSnapshot;
+            mPendingSnapshot = null;
+        }
+        if (snapshot == null || snapshot.equals(mLastSnapshot)) {
+            return;
+        }
+        mLastSnapshot = snapshot;
+        for (StateListener listener : mListeners) {
+            listener.onUpdateStateChanged(snapshot);
+        }
     }
 
     @Override
-    public void onClientStatusSuccess(File data, int task) {
-        Log.d(TAG, "onClientStatusSuccess - updating component");
-        updateComponent(data, task);
+    public void onClientStatusSuccess(File data, int task, boolean modified) {
+        HubExecutors.state().execute(() -> {
+            if (!modified && getComponentForTask(task) != null) {
+                Log.d(TAG, "onClientStatusSuccess - component not modified");
+                onComponentFetched(null, task);
+                return;
+            }
+            Log.d(TAG, "onClientStatusSuccess - updating component");
+            onComponentFetched(data, task);
+        });
     }
 
     @Override
-    public void onClientStatusFailure() {
-        Log.d(TAG, "onClientStatusFailure");
+    public void onClientStatusFailure(int task) {
+        Log.d(TAG, "onClientStatusFailure for task " + task);
+        HubExecutors.state().execute(() -> onComponentFetched(null, task));
     }
 
     @Override
     public void onUpdateStatusChanged(int status, int progress) {
+        // Keep state changes in order with the components they are built from
+        HubExecutors.state().execute(() -> updateStateForStatus(status, progress));
+    }
+
+    private void updateStateForStatus(int status, int progress) {
         ChangelogComponent changelogComponent = (ChangelogComponent)
                 getComponentForTask(CHANGELOG);
         UpdateComponent updateComponent = (UpdateComponent)
@@ -283,7 +374,7 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
     }
 
     public interface StateListener {
-        void onUpdateStateChanged(State state, int progress);
+        void onUpdateStateChanged(StateSnapshot snapshot);
     }
 
     private static final class UpdateRequestStateTask {
@@ -294,19 +385,7 @@ public class UpdateStateController implements ClientConnector.ClientListener, Up
             mController = controller;
         }
 
-        public void start(UpdateComponent component, boolean cachedRequest) {
-            if (cachedRequest) {
-                File data = Update.getCachedUpdate(mController.mContext);
-                if (data.exists()) {
-                    mController.updateComponent(data, UPDATES);
-                    Log.d(TAG, "Updating update component with cached update");
-                } else {
-                    Log.d(TAG, "No cached updates found, setting unavailable state");
-                    compileState(new UpdateUnavailableState());
-                }
-                return;
-            }
-
+        public void start(UpdateComponent component) {
             boolean available = isUpdateAvailable(component);
             int updateStatus = getUpdateStatus();
             State state;
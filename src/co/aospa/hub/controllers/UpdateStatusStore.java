@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.controllers;
+
+import android.content.Context;
+
+import co.aospa.hub.util.Constants;
+import co.aospa.hub.util.PreferenceHelper;
+
+/**
+ * Current update status, owned by the {@link UpdateController}. It is read from
+ * the preferences once, then kept in memory and persisted only when it changes,
+ * so the persisted value survives reboots but reading it never hits the disk.
+ * Progress ticks report the same status over and over, so they never reach the
+ * disk either. Writes are applied in the background, the preferences keep a
+ * backup of the previous file while writing so a crash leaves either the old
+ * or new status.
+ */
+class UpdateStatusStore {
+
+    private final PreferenceHelper mPreferenceHelper;
+    private volatile int mStatus;
+
+    UpdateStatusStore(Context context) {
+        mPreferenceHelper = new PreferenceHelper(context.getApplicationContext());
+        mStatus = mPreferenceHelper.getIntValueByKey(Constants.KEY_UPDATE_STATUS);
+    }
+
+    int getStatus() {
+        return mStatus;
+    }
+
+    synchronized void setStatus(int status) {
+        if (mStatus == status) {
+            return;
+        }
+        mStatus = status;
+        mPreferenceHelper.applyIntValue(Constants.KEY_UPDATE_STATUS, status);
+    }
+
+    /**
+     * Set the status and wait until it is on disk. Only for the last status set
+     * before the device reboots.
+     */
+    synchronized void setStatusNow(int status) {
+        mStatus = status;
+        mPreferenceHelper.saveIntValue(Constants.KEY_UPDATE_STATUS, status);
+    }
+}
@@ -16,6 +16,9 @@
 package co.aospa.hub.ui;
 
 import android.content.Context;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.SpannedString;
 import android.view.View;
 
 public interface State {
@@ -28,4 +31,14 @@ public interface State {
     String getSecondaryActionText(Context context);
     View.OnClickListener getSecondaryAction(Context context);
     boolean getProgressState();
+
+    /**
+     * Get the description parsed from its HTML. The states of an update return
+     * the one parsed along with the update description.
+     */
+    default Spanned getDescription(Context context) {
+        String descriptionText = getDescriptionText(context);
+        return descriptionText != null ? new SpannedString(
+                Html.fromHtml(descriptionText, Html.FROM_HTML_MODE_COMPACT)) : null;
+    }
 }
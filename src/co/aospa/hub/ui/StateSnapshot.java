@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.ui;
+
+import android.content.Context;
+import android.text.Spanned;
+import android.view.View;
+
+import java.util.Objects;
+
+/**
+ * What the screen shows for a state at a given progress. Snapshots are compared
+ * to skip rendering frames that don't change anything, and so only the views of
+ * the fields that changed are bound again. The actions are not compared, states
+ * of the same type with the same texts have the same actions.
+ */
+public final class StateSnapshot {
+
+    private final Class<? extends State> mStateType;
+    private final String mHeaderText;
+    private final String mStepperText;
+    private final String mDescriptionText;
+    private final Spanned mDescription;
+    private final String mActionText;
+    private final View.OnClickListener mAction;
+    private final String mSecondaryActionText;
+    private final View.OnClickListener mSecondaryAction;
+    private final boolean mProgressState;
+    private final int mProgress;
+
+    private StateSnapshot(Context context, State state, int progress) {
+        mStateType = state.getClass();
+        mHeaderText = state.getHeaderText(context);
+        mStepperText = state.getStepperText(context);
+        mDescriptionText = state.getDescriptionText(context);
+        mDescription = state.getDescription(context);
+        mActionText = state.getActionText(context);
+        mAction = state.getAction(context);
+        mSecondaryActionText = state.getSecondaryActionText(context);
+        mSecondaryAction = state.getSecondaryAction(context);
+        mProgressState = state.getProgressState();
+        mProgress = progress;
+    }
+
+    public static StateSnapshot of(Context context, State state, int progress) {
+        return new StateSnapshot(context, state, progress);
+    }
+
+    public Class<? extends State> getStateType() {
+        return mStateType;
+    }
+
+    public String getHeaderText() {
+        return mHeaderText;
+    }
+
+    public String getStepperText() {
+        return mStepperText;
+    }
+
+    public String getDescriptionText() {
+        return mDescriptionText;
+    }
+
+    /**
+     * Get the description parsed from its HTML.
+     */
+    public Spanned getDescription() {
+        return mDescription;
+    }
+
+    public String getActionText() {
+        return mActionText;
+    }
+
+    public View.OnClickListener getAction() {
+        return mAction;
+    }
+
+    public String getSecondaryActionText() {
+        return mSecondaryActionText;
+    }
+
+    public View.OnClickListener getSecondaryAction() {
+        return mSecondaryAction;
+    }
+
+    public boolean getProgressState() {
+        return mProgressState;
+    }
+
+    public int getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * @return whether the buttons of the given snapshot are the same as these
+     */
+    public boolean hasSameActions(StateSnapshot other) {
+        return other != null && mStateType == other.mStateType
+                && Objects.equals(mActionText, other.mActionText)
+                && (mAction != null) == (other.mAction != null)
+                && Objects.equals(mSecondaryActionText, other.mSecondaryActionText)
+                && (mSecondaryAction != null) == (other.mSecondaryAction != null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StateSnapshot)) {
+            return false;
+        }
+        StateSnapshot other = (StateSnapshot) o;
+        return hasSameActions(other)
+                && mProgressState == other.mProgressState
+                && mProgress == other.mProgress
+                && Objects.equals(mHeaderText, other.mHeaderText)
+                && Objects.equals(mStepperText, other.mStepperText)
+                && Objects.equals(mDescriptionText, other.mDescriptionText);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mStateType, mHeaderText, mStepperText, mDescriptionText,
+                mActionText, mAction != null, mSecondaryActionText, mSecondaryAction != null,
+                mProgressState, mProgress);
+    }
+
+    @Override
+    public String toString() {
+        return mStateType.getSimpleName() + ", progress=" + mProgress;
+    }
+}
@@ -16,13 +16,13 @@
 package co.aospa.hub.ui.activities;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.text.Html;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
@@ -31,20 +31,20 @@ import com.google.android.setupdesign.GlifLayout;
 import com.google.android.setupdesign.util.ThemeHelper;
 import com.google.android.setupdesign.view.RichTextView;
 
+import java.util.Objects;
+
 import co.aospa.hub.R;
 import co.aospa.hub.UpdateStateService;
+import co.aospa.hub.client.RateLimiter;
+import co.aospa.hub.controllers.BandwidthController;
+import co.aospa.hub.controllers.UpdateController;
 import co.aospa.hub.controllers.UpdateStateController;
 import co.aospa.hub.ui.State;
+import co.aospa.hub.ui.StateSnapshot;
 import co.aospa.hub.ui.state.UpdateAvailableState;
 import co.aospa.hub.ui.state.UpdateCheckingState;
-import co.aospa.hub.ui.state.UpdateDownloadErrorState;
 import co.aospa.hub.ui.state.UpdateDownloadInstallState;
 import co.aospa.hub.ui.state.UpdateDownloadPausedState;
-import co.aospa.hub.ui.state.UpdateDownloadVerificationState;
-import co.aospa.hub.ui.state.UpdateInstallErrorState;
-import co.aospa.hub.ui.state.UpdateRebootState;
-import co.aospa.hub.ui.state.UpdateUnavailableState;
-import co.aospa.hub.ui.state.UpdateVerificationErrorState;
 import co.aospa.hub.util.Constants;
 import co.aospa.hub.util.App;
 
@@ -52,6 +52,16 @@ public class HubActivity extends Activity implements UpdateStateController.State
 
     private UpdateStateService mUpdateStateService;
 
+    private GlifLayout mLayout;
+    private RichTextView mStepper;
+    private RichTextView mDescription;
+    private Button mPrimaryButton;
+    private Button mSecondaryButton;
+    private Button mDownloadRateButton;
+    private ProgressBar mCheckerProgressBar;
+    private ProgressBar mProgressBar;
+    private StateSnapshot mSnapshot;
+
     private final ServiceConnection mConnection = new ServiceConnection() {
 
         @Override
@@ -77,76 +87,132 @@ public class HubActivity extends Activity implements UpdateStateController.State
         setTheme(App.getTheme(this, getIntent()));
         ThemeHelper.trySetDynamicColor(this);
         setContentView(R.layout.activity_main);
-        updateState(new UpdateCheckingState(), -1);
+        mLayout = findViewById(R.id.system_update);
+        mStepper = mLayout.findViewById(R.id.system_update_stepper);
+        mDescription = mLayout.findViewById(R.id.system_update_description);
+        mPrimaryButton = mLayout.findViewById(R.id.system_update_primary_button);
+        mSecondaryButton = mLayout.findViewById(R.id.system_update_secondary_button);
+        mDownloadRateButton = mLayout.findViewById(R.id.system_update_download_rate);
+        mDownloadRateButton.setOnClickListener(v -> showDownloadRateDialog());
+        mCheckerProgressBar = mLayout.findViewById(R.id.system_update_checker_progress);
+        mProgressBar = mLayout.findViewById(R.id.system_update_progress);
+        updateState(StateSnapshot.of(this, new UpdateCheckingState(), -1));
     }
 
-    private void updateState(State state, int progress) {
-        Context context = HubActivity.this;
-        setHeader(state.getHeaderText(context));
-        setStepper(state.getStepperText(context));
-        setDescription(state.getDescriptionText(context));
-        setButtonAction(state.getAction(context), state.getActionText(context));
-        setSecondaryButtonAction(state.getSecondaryAction(context),
-                state.getSecondaryActionText(context));
-        setShowProgress(state.getProgressState(), progress);
+    /**
+     * Bind the views of the fields that differ from the last rendered snapshot.
+     */
+    private void updateState(StateSnapshot snapshot) {
+        StateSnapshot previous = mSnapshot;
+        mSnapshot = snapshot;
+        if (previous == null || !Objects.equals(previous.getHeaderText(),
+                snapshot.getHeaderText())) {
+            setHeader(snapshot.getHeaderText());
+        }
+        if (previous == null || !Objects.equals(previous.getStepperText(),
+                snapshot.getStepperText())) {
+            setStepper(snapshot.getStepperText());
+        }
+        if (previous == null || !Objects.equals(previous.getDescriptionText(),
+                snapshot.getDescriptionText())) {
+            setDescription(snapshot.getDescription());
+        }
+        if (!snapshot.hasSameActions(previous)) {
+            setButtonAction(mPrimaryButton, snapshot.getAction(), snapshot.getActionText());
+            setButtonAction(mSecondaryButton, snapshot.getSecondaryAction(),
+                    snapshot.getSecondaryActionText());
+        }
+        if (previous == null || previous.getStateType() != snapshot.getStateType()) {
+            setShowDownloadRate(snapshot.getStateType());
+        }
+        if (previous == null || previous.getProgressState() != snapshot.getProgressState()
+                || previous.getProgress() != snapshot.getProgress()) {
+            setShowProgress(snapshot.getProgressState(), snapshot.getProgress());
+        }
     }
 
     private void setHeader(CharSequence headerText) {
-        GlifLayout layout = getLayout();
-        if (!layout.getHeaderTextView().getText().toString().contentEquals(headerText)) {
-            layout.setHeaderText(headerText);
+        if (!mLayout.getHeaderTextView().getText().toString().contentEquals(headerText)) {
+            mLayout.setHeaderText(headerText);
             setTitle(headerText);
         }
     }
 
     private void setStepper(String stepperText) {
-        GlifLayout layout = getLayout();
-        RichTextView stepper = layout.findViewById(R.id.system_update_stepper);
         if (stepperText != null) {
-            stepper.setText(stepperText);
+            mStepper.setText(stepperText);
         }
-        stepper.setVisibility(stepperText != null ? View.VISIBLE : View.GONE);
+        mStepper.setVisibility(stepperText != null ? View.VISIBLE : View.GONE);
     }
 
-    private void setDescription(String descriptionText) {
-        GlifLayout layout = getLayout();
-        RichTextView description = layout.findViewById(R.id.system_update_description);
-        if (descriptionText != null) {
-            description.setText(Html.fromHtml(descriptionText, Html.FROM_HTML_MODE_COMPACT));
+    private void setDescription(CharSequence description) {
+        if (description != null) {
+            mDescription.setText(description);
         }
-        description.setVisibility(descriptionText != null ? View.VISIBLE : View.GONE);
+        mDescription.setVisibility(description != null ? View.VISIBLE : View.GONE);
     }
 
-    private void setButtonAction(View.OnClickListener action, String text) {
-        GlifLayout layout = getLayout();
+    private void setButtonAction(Button button, View.OnClickListener action, String text) {
         int visibility = action != null ? View.VISIBLE : View.GONE;
-        Button button = layout.findViewById(R.id.system_update_primary_button);
         button.setText(text);
         button.setOnClickListener(action);
         button.setVisibility(visibility);
     }
 
-    private void setSecondaryButtonAction(View.OnClickListener action, String text) {
-        GlifLayout layout = getLayout();
-        int visibility = action != null ? View.VISIBLE : View.GONE;
-        Button button = layout.findViewById(R.id.system_update_secondary_button);
-        button.setText(text);
-        button.setOnClickListener(action);
-        button.setVisibility(visibility);
+    private void setShowDownloadRate(Class<? extends State> stateType) {
+        boolean show = stateType == UpdateAvailableState.class
+                || stateType == UpdateDownloadInstallState.class
+                || stateType == UpdateDownloadPausedState.class;
+        if (show) {
+            updateDownloadRateText();
+        }
+        mDownloadRateButton.setVisibility(show ? View.VISIBLE : View.GONE);
+    }
+
+    private void updateDownloadRateText() {
+        String[] entries = getResources().getStringArray(
+                R.array.system_update_download_rate_entries);
+        mDownloadRateButton.setText(getString(R.string.system_update_download_rate,
+                entries[getDownloadRateIndex()]));
+    }
+
+    private int getDownloadRateIndex() {
+        BandwidthController bandwidthController =
+                UpdateController.get(this).getBandwidthController();
+        long rate = bandwidthController.getMaxRate();
+        int[] rates = getResources().getIntArray(R.array.config_downloadRates);
+        for (int i = 0; i < rates.length; i++) {
+            if (rates[i] * 1024L == rate) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private void showDownloadRateDialog() {
+        int[] rates = getResources().getIntArray(R.array.config_downloadRates);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.system_update_download_rate_title)
+                .setSingleChoiceItems(R.array.system_update_download_rate_entries,
+                        getDownloadRateIndex(), (dialog, which) -> {
+                    long rate = rates[which] == 0 ? RateLimiter.UNLIMITED : rates[which] * 1024L;
+                    UpdateController.get(this).getBandwidthController().setMaxRate(rate);
+                    updateDownloadRateText();
+                    dialog.dismiss();
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
     }
 
     private void setShowProgress(boolean showProgress, int progress) {
-        GlifLayout layout = getLayout();
-        ProgressBar checkerProgressBar = layout.findViewById(R.id.system_update_checker_progress);
-        checkerProgressBar.setVisibility(showProgress ? View.VISIBLE : View.GONE);
-        checkerProgressBar.setIndeterminate(showProgress);
+        mCheckerProgressBar.setVisibility(showProgress ? View.VISIBLE : View.GONE);
+        mCheckerProgressBar.setIndeterminate(showProgress);
 
         // Controls the system update progress
         boolean shouldShowProgress = !showProgress && progress != -1;
-        ProgressBar progressBar = layout.findViewById(R.id.system_update_progress);
-        progressBar.setVisibility(shouldShowProgress ? View.VISIBLE : View.GONE);
-        progressBar.setProgress(progress);
-        progressBar.setIndeterminate(!showProgress && progress == 0);
+        mProgressBar.setVisibility(shouldShowProgress ? View.VISIBLE : View.GONE);
+        mProgressBar.setProgress(progress);
+        mProgressBar.setIndeterminate(!showProgress && progress == 0);
     }
 
     @Override
@@ -172,23 +238,8 @@ public class HubActivity extends Activity implements UpdateStateController.State
         finish();
     }
 
-    private GlifLayout getLayout() {
-        return findViewById(R.id.system_update);
-    }
-
     @Override
-    public void onUpdateStateChanged(State state, int progress) {
-        if ((state instanceof UpdateCheckingState ||
-                state instanceof UpdateAvailableState ||
-                state instanceof UpdateUnavailableState ||
-                state instanceof UpdateDownloadInstallState ||
-                state instanceof UpdateDownloadVerificationState ||
-                state instanceof UpdateDownloadPausedState||
-                state instanceof UpdateDownloadErrorState ||
-                state instanceof UpdateInstallErrorState ||
-                state instanceof UpdateVerificationErrorState ||
-                state instanceof UpdateRebootState)) {
-            updateState(state, progress);
-        }
+    public void onUpdateStateChanged(StateSnapshot snapshot) {
+        updateState(snapshot);
     }
-}
\ No newline at end of file
+}
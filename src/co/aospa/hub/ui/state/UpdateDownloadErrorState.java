@@ -17,6 +17,7 @@ package co.aospa.hub.ui.state;
 
 import android.content.Context;
 import android.content.Intent;
+import android.text.Spanned;
 import android.view.View;
 
 import co.aospa.hub.R;
@@ -50,6 +51,11 @@ public class UpdateDownloadErrorState implements State {
         return mUpdate.getUpdateDescriptionText(context);
     }
 
+    @Override
+    public Spanned getDescription(Context context) {
+        return mUpdate.getUpdateDescription(context);
+    }
+
     @Override
     public String getActionText(Context context) {
         return context.getResources().getString(R.string.system_update_update_download_install_error_button);
@@ -17,6 +17,7 @@ package co.aospa.hub.ui.state;
 
 import android.content.Context;
 import android.content.Intent;
+import android.text.Spanned;
 import android.view.View;
 
 import co.aospa.hub.R;
@@ -26,7 +27,6 @@ import co.aospa.hub.components.UpdateComponent;
 import co.aospa.hub.controllers.UpdateController;
 import co.aospa.hub.ui.State;
 import co.aospa.hub.util.Constants;
-import co.aospa.hub.util.PreferenceHelper;
 import co.aospa.hub.util.Update;
 
 public class UpdateDownloadInstallState implements State {
@@ -38,8 +38,7 @@ public class UpdateDownloadInstallState implements State {
     }
 
     private boolean shouldShowButton(Context context) {
-        PreferenceHelper preferenceHelper = new PreferenceHelper(context);
-        int status = preferenceHelper.getIntValueByKey(Constants.KEY_UPDATE_STATUS);
+        int status = UpdateController.get(context).getUpdateStatus();
         return status == UpdateController.StatusType.DOWNLOAD;
     }
 
@@ -53,8 +52,7 @@ public class UpdateDownloadInstallState implements State {
 
     @Override
     public String getStepperText(Context context) {
-        PreferenceHelper preferenceHelper = new PreferenceHelper(context);
-        int state = preferenceHelper.getIntValueByKey(Constants.KEY_UPDATE_STATUS);
+        int state = UpdateController.get(context).getUpdateStatus();
         String stepperText = null;
         switch (state) {
             case UpdateController.StatusType.INSTALL: {
@@ -81,6 +79,11 @@ public class UpdateDownloadInstallState implements State {
         return mUpdate.getUpdateDescriptionText(context);
     }
 
+    @Override
+    public Spanned getDescription(Context context) {
+        return mUpdate.getUpdateDescription(context);
+    }
+
     @Override
     public String getActionText(Context context) {
         boolean shouldShowButton = shouldShowButton(context);
@@ -16,6 +16,7 @@
 package co.aospa.hub.ui.state;
 
 import android.content.Context;
+import android.text.Spanned;
 import android.view.View;
 
 import co.aospa.hub.R;
@@ -47,6 +48,11 @@ public class UpdateDownloadVerificationState implements State {
         return mUpdate.getUpdateDescriptionText(context);
     }
 
+    @Override
+    public Spanned getDescription(Context context) {
+        return mUpdate.getUpdateDescription(context);
+    }
+
     @Override
     public String getActionText(Context context) {
         return null;
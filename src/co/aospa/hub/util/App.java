@@ -41,6 +41,7 @@ public class App {
                 for (File file : files) {
                     //noinspection ResultOfMethodCallIgnored
                     file.delete();
+                    ZipIndex.evict(file);
                 }
             }
         }
@@ -52,6 +53,11 @@ public class App {
         return !(info == null || !info.isConnected() || !info.isAvailable());
     }
 
+    public static boolean isNetworkMetered(Context context) {
+        ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+        return cm.isActiveNetworkMetered();
+    }
+
     public static String getTimeLocalized(Context context, long unixTimestamp) {
         DateFormat f = DateFormat.getTimeInstance(DateFormat.SHORT, getCurrentLocale(context));
         Date date = new Date(unixTimestamp * 1000);
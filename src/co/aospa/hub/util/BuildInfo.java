@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import android.os.SystemProperties;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Snapshot of the properties of the running build. The properties can't change
+ * while the process is alive, so they are read and parsed once, on first use.
+ */
+public final class BuildInfo {
+
+    private static final String TAG = "BuildInfo";
+
+    /**
+     * Where the properties are read from. This is the system properties, except
+     * in tests.
+     */
+    public interface PropertySource {
+        String get(String key);
+    }
+
+    private static PropertySource sPropertySource = SystemProperties::get;
+    private static volatile BuildInfo sInstance;
+
+    private final boolean mABDevice;
+    private final SemanticBuildVersion mAndroidVersion;
+    private final String mRawAndroidSpl;
+    private final String mAndroidSpl;
+    private final String mVersion;
+    private final String mVersionMajor;
+    private final String mVersionNumber;
+    private final SemanticBuildVersion mSemanticVersionNumber;
+    private final String mDevice;
+    private final String mBuildType;
+    private final String mDeviceModel;
+    private final String mFingerprint;
+    private final long mTimestamp;
+
+    private BuildInfo(PropertySource properties) {
+        mABDevice = parseBoolean(properties.get(Constants.PROP_AB_DEVICE));
+        mAndroidVersion = SemanticBuildVersion.parse(properties.get(Constants.PROP_ANDROID_VERSION));
+        mRawAndroidSpl = properties.get(Constants.PROP_ANDROID_SPL);
+        mAndroidSpl = formatSpl(mRawAndroidSpl);
+        mVersion = properties.get(Constants.PROP_VERSION);
+        mVersionMajor = properties.get(Constants.PROP_VERSION_MAJOR);
+        mVersionNumber = properties.get(Constants.PROP_VERSION_MINOR);
+        mSemanticVersionNumber = SemanticBuildVersion.parse(mVersionNumber);
+        mDevice = properties.get(Constants.PROP_DEVICE);
+        mBuildType = properties.get(Constants.PROP_BUILD_TYPE);
+        mDeviceModel = properties.get(Constants.PROP_DEVICE_MODEL);
+        mFingerprint = properties.get(Constants.PROP_FINGERPRINT);
+        mTimestamp = parseTimestamp(properties.get(Constants.PROP_BUILD_DATE));
+    }
+
+    public static BuildInfo get() {
+        BuildInfo buildInfo = sInstance;
+        if (buildInfo == null) {
+            synchronized (BuildInfo.class) {
+                if (sInstance == null) {
+                    sInstance = new BuildInfo(sPropertySource);
+                }
+                buildInfo = sInstance;
+            }
+        }
+        return buildInfo;
+    }
+
+    /**
+     * Read the properties from the given source instead, and drop the current
+     * snapshot so the next get() takes a new one.
+     */
+    @VisibleForTesting
+    public static synchronized void setPropertySource(PropertySource propertySource) {
+        sPropertySource = propertySource;
+        sInstance = null;
+    }
+
+    private static String formatSpl(String spl) {
+        if (spl == null || spl.isEmpty()) {
+            return spl;
+        }
+        SimpleDateFormat oldFormat = new SimpleDateFormat("yyyy-M-dd", Locale.US);
+        SimpleDateFormat newFormat = new SimpleDateFormat("MMMM d, yyyy", Locale.US);
+        try {
+            return newFormat.format(oldFormat.parse(spl));
+        } catch (ParseException e) {
+            Log.e(TAG, "Could not parse security patch level " + spl, e);
+            return spl;
+        }
+    }
+
+    // Same values as SystemProperties.getBoolean()
+    private static boolean parseBoolean(String value) {
+        return "1".equals(value) || "y".equals(value) || "yes".equals(value)
+                || "on".equals(value) || "true".equals(value);
+    }
+
+    private static long parseTimestamp(String timestamp) {
+        try {
+            return Long.parseLong(timestamp);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Could not parse build date " + timestamp, e);
+            return 0;
+        }
+    }
+
+    public boolean isABDevice() {
+        return mABDevice;
+    }
+
+    public SemanticBuildVersion getAndroidVersion() {
+        return mAndroidVersion;
+    }
+
+    public String getRawAndroidSpl() {
+        return mRawAndroidSpl;
+    }
+
+    /**
+     * Get the security patch level formatted for display, like "March 5, 2022".
+     */
+    public String getAndroidSpl() {
+        return mAndroidSpl;
+    }
+
+    public String getVersion() {
+        return mVersion;
+    }
+
+    public String getVersionMajor() {
+        return mVersionMajor;
+    }
+
+    public String getVersionNumber() {
+        return mVersionNumber;
+    }
+
+    public SemanticBuildVersion getSemanticVersionNumber() {
+        return mSemanticVersionNumber;
+    }
+
+    public String getDevice() {
+        return mDevice;
+    }
+
+    public String getBuildType() {
+        return mBuildType;
+    }
+
+    public String getDeviceModel() {
+        return mDeviceModel;
+    }
+
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+}
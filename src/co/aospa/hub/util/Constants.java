@@ -35,6 +35,7 @@ public class Constants {
     public static final boolean USE_AB_PERFORMANCE_MODE = true;
     public static final String KEY_LAST_UPDATE_CHECK = "last_update_check";
     public static final String KEY_UPDATE_STATUS = "update_status";
+    public static final String KEY_DOWNLOAD_MAX_RATE = "download_max_rate";
     public static final String NOTIFICATION_CHANNEL_ID = "system_updates_notification_channel";
 
     // Properties
@@ -50,5 +51,6 @@ public class Constants {
     public static final String PROP_BUILD_TYPE = "ro.aospa.build.variant";
     public static final String PROP_DEVICE_MODEL = "ro.product.model";
     public static final String PROP_BUILD_DATE = "ro.build.date.utc";
+    public static final String PROP_FINGERPRINT = "ro.build.fingerprint";
     public static final String UNCRYPT_FILE_EXT = ".uncrypt";
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import java.io.PrintWriter;
+
+/**
+ * The executors all background work of the app runs on.
+ */
+public final class HubExecutors {
+
+    // Downloads and other network or disk work, which may wait for net tasks
+    private static final int IO_THREADS = 4;
+    // Connections started by io tasks, which never wait for other tasks
+    private static final int NET_THREADS = 8;
+    private static final int CPU_THREADS = Math.max(1,
+            Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final MeteredExecutor sIo =
+            MeteredExecutor.newQueuedExecutor("hub-io", IO_THREADS);
+    private static final MeteredExecutor sNet =
+            MeteredExecutor.newQueuedExecutor("hub-net", NET_THREADS);
+    private static final MeteredExecutor sCpu =
+            MeteredExecutor.newQueuedExecutor("hub-cpu", CPU_THREADS);
+    private static final MeteredExecutor sState =
+            MeteredExecutor.newQueuedExecutor("hub-state", 1);
+
+    private HubExecutors() {
+    }
+
+    /**
+     * Get the executor for network and disk work. Tasks may wait for the net
+     * tasks they started, but never for other io tasks.
+     */
+    public static MeteredExecutor io() {
+        return sIo;
+    }
+
+    /**
+     * Get the executor for the connections an io task runs in parallel, like the
+     * segments of a download or mirror probes. Tasks must not wait for any other
+     * task, so the io tasks waiting for them can always finish.
+     */
+    public static MeteredExecutor net() {
+        return sNet;
+    }
+
+    /**
+     * Get the executor for work bound by the cpu, like verifying packages.
+     */
+    public static MeteredExecutor cpu() {
+        return sCpu;
+    }
+
+    /**
+     * Get the executor running state changes one at a time, in order.
+     */
+    public static MeteredExecutor state() {
+        return sState;
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println("Executors:");
+        sIo.dump(pw);
+        sNet.dump(pw);
+        sCpu.dump(pw);
+        sState.dump(pw);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool with named threads running at background priority, which keeps
+ * track of how many tasks wait and how long they wait before running.
+ */
+public class MeteredExecutor implements Executor {
+
+    private static final String TAG = "MeteredExecutor";
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Tasks waiting longer than this to start are logged
+    private static final long SLOW_START_MS = 1000;
+
+    private final String mName;
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mTotalLatencyMs = new AtomicLong();
+    private final AtomicLong mMaxLatencyMs = new AtomicLong();
+
+    private MeteredExecutor(String name, int threads) {
+        mName = name;
+        ThreadFactory threadFactory = runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, mName + "-" + mThreadCount.incrementAndGet());
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Create an executor running at most the given number of tasks at a time,
+     * the others wait in order.
+     */
+    static MeteredExecutor newQueuedExecutor(String name, int threads) {
+        return new MeteredExecutor(name, threads);
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        final long queued = SystemClock.elapsedRealtime();
+        mQueued.incrementAndGet();
+        mExecutor.execute(() -> {
+            onStart(SystemClock.elapsedRealtime() - queued);
+            command.run();
+        });
+    }
+
+    private void onStart(long latencyMs) {
+        mQueued.decrementAndGet();
+        mStarted.incrementAndGet();
+        mTotalLatencyMs.addAndGet(latencyMs);
+        mMaxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+        if (latencyMs > SLOW_START_MS) {
+            Log.w(TAG, "Task waited " + latencyMs + " ms on " + mName);
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Get the number of tasks waiting to start.
+     */
+    public int getQueueDepth() {
+        return mQueued.get();
+    }
+
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    public long getAverageLatencyMs() {
+        final long started = mStarted.get();
+        return started > 0 ? mTotalLatencyMs.get() / started : 0;
+    }
+
+    public long getMaxLatencyMs() {
+        return mMaxLatencyMs.get();
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  " + mName + ": active=" + getActiveCount()
+                + " queued=" + getQueueDepth()
+                + " started=" + mStarted.get()
+                + " avgLatencyMs=" + getAverageLatencyMs()
+                + " maxLatencyMs=" + getMaxLatencyMs());
+    }
+}
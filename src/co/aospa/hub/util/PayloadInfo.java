@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What update_engine needs to know about the payload of an A/B update package:
+ * where it is, its properties, and the hashes and sizes it will be checked
+ * against. Everything is read from the zip index in one go.
+ */
+public class PayloadInfo {
+
+    public static final String PROPERTY_FILE_HASH = "FILE_HASH";
+    public static final String PROPERTY_FILE_SIZE = "FILE_SIZE";
+    public static final String PROPERTY_METADATA_HASH = "METADATA_HASH";
+    public static final String PROPERTY_METADATA_SIZE = "METADATA_SIZE";
+
+    // "CrAU", followed by the version, the manifest size and, since version 2,
+    // the metadata signature size
+    private static final int PAYLOAD_MAGIC = 0x43724155;
+    private static final int PAYLOAD_HEADER_SIZE = 24;
+    private static final int PAYLOAD_V1_HEADER_SIZE = 20;
+
+    private final long mOffset;
+    private final long mSize;
+    private final String[] mProperties;
+    private final Map<String, String> mPropertyValues;
+    private final long mVersion;
+    private final long mMetadataSize;
+
+    private PayloadInfo(long offset, long size, String[] properties,
+                        Map<String, String> propertyValues, long version, long metadataSize) {
+        mOffset = offset;
+        mSize = size;
+        mProperties = properties;
+        mPropertyValues = propertyValues;
+        mVersion = version;
+        mMetadataSize = metadataSize;
+    }
+
+    /**
+     * Read the payload of the given package.
+     *
+     * @throws IOException if the package has no valid A/B payload
+     */
+    public static PayloadInfo read(ZipIndex index) throws IOException {
+        ZipIndex.Entry payload = index.getEntry(Constants.AB_PAYLOAD_BIN_PATH);
+        ZipIndex.Entry propertiesEntry = index.getEntry(Constants.AB_PAYLOAD_PROPERTIES_PATH);
+        if (payload == null || propertiesEntry == null) {
+            throw new IOException("Not an A/B update package");
+        }
+        if (payload.getMethod() != ZipIndex.METHOD_STORED) {
+            throw new IOException("The payload is compressed");
+        }
+
+        List<String> properties = new ArrayList<>();
+        Map<String, String> propertyValues = new HashMap<>();
+        for (String line : new String(index.readEntry(propertiesEntry), StandardCharsets.UTF_8)
+                .split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            properties.add(line);
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                propertyValues.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+
+        final long offset = index.getDataOffset(payload);
+        final int headerSize = (int) Math.min(PAYLOAD_HEADER_SIZE, payload.getSize());
+        ByteBuffer header = index.readBytes(offset, headerSize).order(ByteOrder.BIG_ENDIAN);
+        if (headerSize < PAYLOAD_V1_HEADER_SIZE || header.getInt(0) != PAYLOAD_MAGIC) {
+            throw new IOException("Invalid payload header");
+        }
+        final long version = header.getLong(4);
+        final long manifestSize = header.getLong(12);
+        final long metadataSize = manifestSize
+                + (version == 1 ? PAYLOAD_V1_HEADER_SIZE : PAYLOAD_HEADER_SIZE);
+        String expectedMetadataSize = propertyValues.get(PROPERTY_METADATA_SIZE);
+        if (expectedMetadataSize != null
+                && !expectedMetadataSize.equals(String.valueOf(metadataSize))) {
+            throw new IOException("Payload metadata is " + metadataSize
+                    + " bytes, but its properties say " + expectedMetadataSize);
+        }
+        return new PayloadInfo(offset, payload.getSize(), properties.toArray(new String[0]),
+                propertyValues, version, metadataSize);
+    }
+
+    /**
+     * Get the offset of the payload in the package.
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Get the lines of the payload properties, in the key=value form expected by
+     * update_engine.
+     */
+    public String[] getProperties() {
+        return mProperties;
+    }
+
+    /**
+     * @return the value of the given payload property, or null if it is not set
+     */
+    public String getProperty(String key) {
+        return mPropertyValues.get(key);
+    }
+
+    public String getFileHash() {
+        return getProperty(PROPERTY_FILE_HASH);
+    }
+
+    public String getMetadataHash() {
+        return getProperty(PROPERTY_METADATA_HASH);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public long getMetadataSize() {
+        return mMetadataSize;
+    }
+}
@@ -32,6 +32,13 @@ class PreferenceHelper(context: Context) {
             .commit()
     }
 
+    fun applyIntValue(key: String?, value: Int) {
+        PreferenceManager.getDefaultSharedPreferences(mContext)
+            .edit()
+            .putInt(key, value)
+            .apply()
+    }
+
     @SuppressLint("ApplySharedPref")
     fun saveBooleanValue(key: String?, value: Boolean) {
         PreferenceManager.getDefaultSharedPreferences(mContext)
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import java.util.Arrays;
+
+/**
+ * A dotted version such as "13" or "14.10", compared part by part so that
+ * "14.10" is newer than "14.9". Missing parts count as zero, so "14" and "14.0"
+ * are equal. Versions that can't be parsed are older than every valid one.
+ */
+public final class SemanticBuildVersion implements Comparable<SemanticBuildVersion> {
+
+    public static final SemanticBuildVersion INVALID = new SemanticBuildVersion(null, null);
+
+    private final String mVersion;
+    private final int[] mParts;
+
+    private SemanticBuildVersion(String version, int[] parts) {
+        mVersion = version;
+        mParts = parts;
+    }
+
+    /**
+     * Parse a version made of numbers separated by dots. Anything after the last
+     * number, like a "-beta" suffix, is ignored.
+     *
+     * @return the version, or {@link #INVALID} if it doesn't start with a number
+     */
+    public static SemanticBuildVersion parse(String version) {
+        if (version == null) {
+            return INVALID;
+        }
+        int[] parts = new int[4];
+        int count = 0;
+        int i = 0;
+        final int length = version.length();
+        while (i < length) {
+            int start = i;
+            long value = 0;
+            while (i < length && Character.isDigit(version.charAt(i))) {
+                value = Math.min(Integer.MAX_VALUE, value * 10 + (version.charAt(i) - '0'));
+                i++;
+            }
+            if (i == start) {
+                break;
+            }
+            if (count == parts.length) {
+                parts = Arrays.copyOf(parts, count * 2);
+            }
+            parts[count++] = (int) value;
+            if (i >= length || version.charAt(i) != '.') {
+                break;
+            }
+            i++;
+        }
+        if (count == 0) {
+            return INVALID;
+        }
+        // Trailing zeros don't change the order, dropping them keeps equals consistent
+        while (count > 1 && parts[count - 1] == 0) {
+            count--;
+        }
+        return new SemanticBuildVersion(version, Arrays.copyOf(parts, count));
+    }
+
+    public boolean isValid() {
+        return mParts != null;
+    }
+
+    public boolean isNewerThan(SemanticBuildVersion other) {
+        return compareTo(other) > 0;
+    }
+
+    @Override
+    public int compareTo(SemanticBuildVersion other) {
+        if (mParts == null || other.mParts == null) {
+            return Boolean.compare(mParts != null, other.mParts != null);
+        }
+        final int count = Math.max(mParts.length, other.mParts.length);
+        for (int i = 0; i < count; i++) {
+            int part = i < mParts.length ? mParts[i] : 0;
+            int otherPart = i < other.mParts.length ? other.mParts[i] : 0;
+            if (part != otherPart) {
+                return Integer.compare(part, otherPart);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SemanticBuildVersion)) {
+            return false;
+        }
+        return Arrays.equals(mParts, ((SemanticBuildVersion) o).mParts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mParts);
+    }
+
+    @Override
+    public String toString() {
+        return mVersion != null ? mVersion : "invalid";
+    }
+}
@@ -17,24 +17,30 @@
 package co.aospa.hub.util;
 
 import android.content.Context;
-import android.os.SystemProperties;
 import android.os.storage.StorageManager;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.SpannedString;
 import android.text.format.Formatter;
-import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Arrays;
 
 import co.aospa.hub.R;
-import co.aospa.hub.client.ClientConnector;
 import co.aospa.hub.components.ChangelogComponent;
+import co.aospa.hub.components.DeltaPackage;
 import co.aospa.hub.components.UpdateComponent;
 
 public class Update {
 
+    // Every state of an update shows the same description, so the last one built
+    // and parsed is kept along with what it was built from
+    private static final Object sDescriptionLock = new Object();
+    private static Description sDescription;
+    // Shown when there is no update component, it doesn't depend on anything
+    private static Description sErrorDescription;
+
     private final ChangelogComponent mChangelogComponent;
     private final UpdateComponent mUpdateComponent;
 
@@ -50,10 +56,46 @@ public class Update {
     }
 
     public static File getCachedUpdate(Context context) {
-        return new File(context.getCacheDir(), ClientConnector.TARGET_DEVICE);
+        return new File(context.getCacheDir(), BuildInfo.get().getDevice());
     }
 
     public String getUpdateDescriptionText(Context context) {
+        return getDescription(context).mText;
+    }
+
+    /**
+     * Get the update description parsed from its HTML. It is parsed once along
+     * with the text, so it can be prepared off the main thread.
+     */
+    public Spanned getUpdateDescription(Context context) {
+        return getDescription(context).mParsed;
+    }
+
+    private Description getDescription(Context context) {
+        if (mUpdateComponent == null) {
+            synchronized (sDescriptionLock) {
+                if (sErrorDescription == null) {
+                    sErrorDescription = new Description(null, buildUpdateDescriptionText(context));
+                }
+                return sErrorDescription;
+            }
+        }
+        Object[] key = {mUpdateComponent, mChangelogComponent, mUpdateComponent.getDelta(),
+                mUpdateComponent.getFileSize(),
+                context.getResources().getConfiguration().getLocales()};
+        synchronized (sDescriptionLock) {
+            if (sDescription != null && Arrays.equals(key, sDescription.mKey)) {
+                return sDescription;
+            }
+        }
+        Description description = new Description(key, buildUpdateDescriptionText(context));
+        synchronized (sDescriptionLock) {
+            sDescription = description;
+        }
+        return description;
+    }
+
+    private String buildUpdateDescriptionText(Context context) {
         String updateDescription = "error";
         if (mUpdateComponent != null) {
             String deviceChangelog = getDeviceChangelog();
@@ -64,19 +106,33 @@ public class Update {
                         mUpdateComponent.getBuildType(),
                         mUpdateComponent.getVersionNumber(),
                         deviceChangelog != null ? deviceChangelog : "No updates found",
-                        Formatter.formatShortFileSize(context, mUpdateComponent.getFileSize()));
+                        getUpdateSizeText(context));
             } else {
                 updateDescription = String.format(context.getResources().getString(deviceChangelog != null
                                 ? R.string.system_update_update_available_with_device_desc
                                 : R.string.system_update_update_available_desc),
                         mChangelogComponent.getChangelog(),
                         deviceChangelog,
-                        Formatter.formatShortFileSize(context, mUpdateComponent.getFileSize()));
+                        getUpdateSizeText(context));
             }
         }
         return updateDescription;
     }
 
+    private String getUpdateSizeText(Context context) {
+        DeltaPackage delta = mUpdateComponent.getDelta();
+        if (delta == null) {
+            delta = mUpdateComponent.findDelta(BuildInfo.get().getFingerprint());
+        }
+        long fullSize = mUpdateComponent.getFullFileSize();
+        if (delta == null || fullSize <= delta.getFileSize()) {
+            return Formatter.formatShortFileSize(context, mUpdateComponent.getFileSize());
+        }
+        return context.getResources().getString(R.string.system_update_update_size_incremental,
+                Formatter.formatShortFileSize(context, delta.getFileSize()),
+                Formatter.formatShortFileSize(context, fullSize - delta.getFileSize()));
+    }
+
     private String getDeviceChangelog() {
         String changelog = null;
         if (mUpdateComponent != null) {
@@ -91,8 +147,8 @@ public class Update {
     public boolean isDeviceIncrementalUpdate() {
         Version version = new Version(mUpdateComponent);
         boolean isAndroidUpgrade = version.isAndroidUpgrade();
-        return !isAndroidUpgrade && (Float.parseFloat(mUpdateComponent.getVersionNumber())
-                > Float.parseFloat(mChangelogComponent.getVersionNumber()));
+        return !isAndroidUpgrade && mUpdateComponent.getSemanticVersionNumber()
+                .isNewerThan(mChangelogComponent.getSemanticVersionNumber());
     }
 
     public boolean isSecurityUpdate() {
@@ -101,19 +157,35 @@ public class Update {
     }
 
     public static boolean isABDevice() {
-        return SystemProperties.getBoolean(Constants.PROP_AB_DEVICE, false);
+        return BuildInfo.get().isABDevice();
     }
 
     public static boolean isABUpdate(File file) throws IOException {
-        ZipFile zipFile = new ZipFile(file);
-        boolean isABUpdate = isABUpdate(zipFile);
-        zipFile.close();
-        return isABUpdate;
+        return isABUpdate(ZipIndex.get(file));
     }
 
-    public static boolean isABUpdate(ZipFile zipFile) {
-        return zipFile.getEntry(Constants.AB_PAYLOAD_BIN_PATH) != null &&
-                zipFile.getEntry(Constants.AB_PAYLOAD_PROPERTIES_PATH) != null;
+    public static boolean isABUpdate(ZipIndex index) {
+        return index.getEntry(Constants.AB_PAYLOAD_BIN_PATH) != null &&
+                index.getEntry(Constants.AB_PAYLOAD_PROPERTIES_PATH) != null;
+    }
+
+    /**
+     * Get the payload of the downloaded A/B update. It is read on first use and
+     * kept on the component.
+     *
+     * @return the payload, or null if the package is not an A/B update
+     */
+    public static PayloadInfo getPayloadInfo(UpdateComponent component) throws IOException {
+        PayloadInfo payloadInfo = component.getPayloadInfo();
+        if (payloadInfo == null) {
+            ZipIndex index = ZipIndex.get(component.getFile());
+            if (!isABUpdate(index)) {
+                return null;
+            }
+            payloadInfo = PayloadInfo.read(index);
+            component.setPayloadInfo(payloadInfo);
+        }
+        return payloadInfo;
     }
 
     public static boolean isEncrypted(Context context, File file) {
@@ -121,33 +193,15 @@ public class Update {
         return sm.isEncrypted(file);
     }
 
-    /**
-     * Get the offset to the compressed data of a file inside the given zip
-     *
-     * @param zipFile input zip file
-     * @param entryPath full path of the entry
-     * @return the offset of the compressed, or -1 if not found
-     * @throws IllegalArgumentException if the given entry is not found
-     */
-    public static long getZipEntryOffset(ZipFile zipFile, String entryPath) {
-        // Each entry has an header of (30 + n + m) bytes
-        // 'n' is the length of the file name
-        // 'm' is the length of the extra field
-        final int FIXED_HEADER_SIZE = 30;
-        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-        long offset = 0;
-        while (zipEntries.hasMoreElements()) {
-            ZipEntry entry = zipEntries.nextElement();
-            int n = entry.getName().length();
-            int m = entry.getExtra() == null ? 0 : entry.getExtra().length;
-            int headerSize = FIXED_HEADER_SIZE + n + m;
-            offset += headerSize;
-            if (entry.getName().equals(entryPath)) {
-                return offset;
-            }
-            offset += entry.getCompressedSize();
+    private static final class Description {
+        final Object[] mKey;
+        final String mText;
+        final Spanned mParsed;
+
+        Description(Object[] key, String text) {
+            mKey = key;
+            mText = text;
+            mParsed = new SpannedString(Html.fromHtml(text, Html.FROM_HTML_MODE_COMPACT));
         }
-        Log.e("Update", "Entry " + entryPath + " not found");
-        throw new IllegalArgumentException("The given entry was not found");
     }
 }
@@ -15,15 +15,8 @@
  */
 package co.aospa.hub.util;
 
-import android.os.SystemProperties;
 import android.util.Log;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Objects;
-
 import co.aospa.hub.components.UpdateComponent;
 
 public class Version {
@@ -51,8 +44,8 @@ public class Version {
 
             // Treat it as a valid update if the timestamp is newer
             if (mComponent.getTimestamp() > getCurrentTimestamp()
-                    || (Float.parseFloat(mComponent.getVersionNumber())
-                    > Float.parseFloat(getCurrentVersionNumber()))) {
+                    || mComponent.getSemanticVersionNumber()
+                            .isNewerThan(BuildInfo.get().getSemanticVersionNumber())) {
                 Log.d(TAG, mComponent.getFileName() + " is available for update");
                 return true;
             } else {
@@ -62,9 +55,24 @@ public class Version {
         return false;
     }
 
+    /**
+     * Whether a build of the updates feed should be picked over the best one found
+     * so far. Builds published for another channel are never picked, builds without
+     * a channel are available on every channel.
+     *
+     * @param channel the channel of the running build, see getBuildType()
+     */
+    public static boolean isBetterCandidate(UpdateComponent candidate, UpdateComponent best,
+                                            String channel) {
+        if (candidate.getChannel() != null && !candidate.getChannel().equalsIgnoreCase(channel)) {
+            return false;
+        }
+        return best == null || candidate.getBuildKey().compareTo(best.getBuildKey()) > 0;
+    }
+
     public boolean isAndroidUpgrade() {
         return mComponent != null &&
-                Float.parseFloat(mComponent.getAndroidVersion()) > getAndroidVersion();
+                mComponent.getSemanticAndroidVersion().isNewerThan(getAndroidVersion());
     }
 
     private boolean isValidatedDowngraded() {
@@ -77,43 +85,31 @@ public class Version {
         return false;
     }
 
-    public static float getAndroidVersion() {
-        return Float.parseFloat(SystemProperties.get(Constants.PROP_ANDROID_VERSION));
+    public static SemanticBuildVersion getAndroidVersion() {
+        return BuildInfo.get().getAndroidVersion();
     }
 
     public static String getCurrentVersion() {
-        return SystemProperties.get(Constants.PROP_VERSION_MAJOR);
+        return BuildInfo.get().getVersionMajor();
     }
 
     public static String getCurrentVersionNumber() {
-        return SystemProperties.get(Constants.PROP_VERSION_MINOR);
+        return BuildInfo.get().getVersionNumber();
     }
 
     public static long getCurrentTimestamp() {
-        return Long.parseLong(SystemProperties.get(Constants.PROP_BUILD_DATE));
+        return BuildInfo.get().getTimestamp();
     }
 
     public static String getBuildType() {
-        return SystemProperties.get(Constants.PROP_BUILD_TYPE);
+        return BuildInfo.get().getBuildType();
     }
 
     public static String getAndroidSpl() {
-        String dataIn = SystemProperties.get(Constants.PROP_ANDROID_SPL);
-        String dataOut;
-
-        SimpleDateFormat oldFormat = new SimpleDateFormat("yyyy-M-dd", Locale.US);
-        SimpleDateFormat newFormat = new SimpleDateFormat("MMMM d, yyyy", Locale.US);
-        Date date = null;
-        try {
-            date = oldFormat.parse(dataIn);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-        dataOut = newFormat.format(Objects.requireNonNull(date));
-        return dataOut;
+        return BuildInfo.get().getAndroidSpl();
     }
 
     public static String getRawAndroidSpl() {
-        return SystemProperties.get(Constants.PROP_ANDROID_SPL);
+        return BuildInfo.get().getRawAndroidSpl();
     }
 }
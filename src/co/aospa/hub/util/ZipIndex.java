@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Index of the entries of a zip, built from its central directory alone. Only
+ * the end of the zip and the local headers of the entries that are looked up
+ * are read, so it works just as well on a zip that is only reachable through
+ * ranged reads.
+ */
+public class ZipIndex {
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CD_SIGNATURE = 0x02014b50;
+    private static final int CD_HEADER_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int MAX_INLINE_ENTRY_SIZE = 1024 * 1024;
+    // Smaller reads, like local headers, are cheaper to copy than to map
+    private static final int MIN_MAP_SIZE = 16 * 1024;
+
+    // Only the package being handled is looked into, so a single index is kept
+    private static final Object sFileIndexLock = new Object();
+    private static File sIndexedFile;
+    private static ZipIndex sFileIndex;
+
+    /**
+     * Where the bytes of the zip are read from.
+     */
+    public interface Source {
+        long length() throws IOException;
+
+        /**
+         * Read exactly the given number of bytes at the given offset.
+         */
+        ByteBuffer read(long offset, int length) throws IOException;
+    }
+
+    public static class Entry {
+        private final String mName;
+        private final int mMethod;
+        private final long mCompressedSize;
+        private final long mSize;
+        private final long mLocalHeaderOffset;
+        private long mDataOffset = -1;
+
+        private Entry(String name, int method, long compressedSize, long size,
+                      long localHeaderOffset) {
+            mName = name;
+            mMethod = method;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mLocalHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getMethod() {
+            return mMethod;
+        }
+
+        public long getCompressedSize() {
+            return mCompressedSize;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+    }
+
+    private final Source mSource;
+    private final Map<String, Entry> mEntries;
+    private long mFileLength = -1;
+    private long mFileLastModified;
+
+    private ZipIndex(Source source, Map<String, Entry> entries) {
+        mSource = source;
+        mEntries = entries;
+    }
+
+    /**
+     * Get the index of the given file. It is kept until the file changes or
+     * another file is indexed, so the zip is only parsed once however many times
+     * it is looked into.
+     */
+    public static ZipIndex get(File file) throws IOException {
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        synchronized (sFileIndexLock) {
+            ZipIndex index = sFileIndex;
+            if (index != null && file.equals(sIndexedFile) && index.mFileLength == length
+                    && index.mFileLastModified == lastModified) {
+                return index;
+            }
+        }
+        ZipIndex index = read(new FileSource(file));
+        index.mFileLength = length;
+        index.mFileLastModified = lastModified;
+        synchronized (sFileIndexLock) {
+            sIndexedFile = file;
+            sFileIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Drop the index kept for the given file, once it is deleted.
+     */
+    public static void evict(File file) {
+        synchronized (sFileIndexLock) {
+            if (file.equals(sIndexedFile)) {
+                sIndexedFile = null;
+                sFileIndex = null;
+            }
+        }
+    }
+
+    public static ZipIndex read(Source source) throws IOException {
+        final long length = source.length();
+        final int tailLength = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_SIZE);
+        final long tailOffset = length - tailLength;
+        ByteBuffer tail = read(source, tailOffset, tailLength);
+        int eocd = findEocd(tail);
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+        long entries = tail.getShort(eocd + 10) & 0xffff;
+        long cdSize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long cdOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+        if (entries == 0xffff || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) {
+            long locatorOffset = tailOffset + eocd - ZIP64_LOCATOR_SIZE;
+            if (locatorOffset < 0) {
+                throw new ZipException("Zip64 locator not found");
+            }
+            ByteBuffer locator = read(source, locatorOffset, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new ZipException("Zip64 locator not found");
+            }
+            ByteBuffer eocd64 = read(source, locator.getLong(8), ZIP64_EOCD_SIZE);
+            if (eocd64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                throw new ZipException("Zip64 end of central directory not found");
+            }
+            entries = eocd64.getLong(32);
+            cdSize = eocd64.getLong(40);
+            cdOffset = eocd64.getLong(48);
+        }
+        if (cdOffset < 0 || cdSize < 0 || cdSize > Integer.MAX_VALUE
+                || cdOffset + cdSize > length) {
+            throw new ZipException("Invalid central directory");
+        }
+        ByteBuffer cd = read(source, cdOffset, (int) cdSize);
+        return new ZipIndex(source, readEntries(cd, entries));
+    }
+
+    private static ByteBuffer read(Source source, long offset, int length) throws IOException {
+        ByteBuffer buffer = source.read(offset, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < length) {
+            throw new ZipException("Truncated zip");
+        }
+        buffer.limit(length);
+        return buffer;
+    }
+
+    private static int findEocd(ByteBuffer tail) {
+        for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE
+                    && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) == tail.limit()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Map<String, Entry> readEntries(ByteBuffer cd, long count) throws ZipException {
+        Map<String, Entry> entries = new HashMap<>();
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (position + CD_HEADER_SIZE > cd.limit() || cd.getInt(position) != CD_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry, index=" + i);
+            }
+            int method = cd.getShort(position + 10) & 0xffff;
+            long compressedSize = cd.getInt(position + 20) & ZIP64_MAGIC;
+            long size = cd.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = cd.getShort(position + 28) & 0xffff;
+            int extraLength = cd.getShort(position + 30) & 0xffff;
+            int commentLength = cd.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = cd.getInt(position + 42) & ZIP64_MAGIC;
+            int next = position + CD_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > cd.limit()) {
+                throw new ZipException("Invalid central directory entry, index=" + i);
+            }
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBuffer = cd.duplicate();
+            nameBuffer.position(position + CD_HEADER_SIZE);
+            nameBuffer.get(name);
+
+            // Values that don't fit are in the zip64 extra field, in this order
+            int extra = position + CD_HEADER_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = cd.getShort(extra) & 0xffff;
+                int dataSize = cd.getShort(extra + 2) & 0xffff;
+                int field = extra + 4;
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == ZIP64_MAGIC && field + 8 <= extraEnd) {
+                        size = cd.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC && field + 8 <= extraEnd) {
+                        compressedSize = cd.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC && field + 8 <= extraEnd) {
+                        localHeaderOffset = cd.getLong(field);
+                    }
+                    break;
+                }
+                extra = field + dataSize;
+            }
+
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            entries.put(entryName, new Entry(entryName, method, compressedSize, size,
+                    localHeaderOffset));
+            position = next;
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * @return the entry with the given name, or null if there is none
+     */
+    public Entry getEntry(String name) {
+        return mEntries.get(name);
+    }
+
+    /**
+     * Get the offset of the data of the given entry. The local header may have a
+     * different extra field than the central directory, so it is read once.
+     */
+    public synchronized long getDataOffset(Entry entry) throws IOException {
+        if (entry.mDataOffset < 0) {
+            ByteBuffer header = read(mSource, entry.mLocalHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_SIGNATURE) {
+                throw new ZipException("Invalid local header for " + entry.mName);
+            }
+            int nameLength = header.getShort(26) & 0xffff;
+            int extraLength = header.getShort(28) & 0xffff;
+            entry.mDataOffset = entry.mLocalHeaderOffset + LOCAL_HEADER_SIZE
+                    + nameLength + extraLength;
+        }
+        return entry.mDataOffset;
+    }
+
+    /**
+     * Read the given range of the zip, in little endian order.
+     */
+    public ByteBuffer readBytes(long offset, int length) throws IOException {
+        return read(mSource, offset, length);
+    }
+
+    /**
+     * Read the uncompressed content of a small entry.
+     */
+    public byte[] readEntry(Entry entry) throws IOException {
+        if (entry.mSize > MAX_INLINE_ENTRY_SIZE || entry.mCompressedSize > MAX_INLINE_ENTRY_SIZE) {
+            throw new ZipException(entry.mName + " is too large to be read at once");
+        }
+        ByteBuffer data = read(mSource, getDataOffset(entry), (int) entry.mCompressedSize);
+        byte[] content = new byte[(int) entry.mSize];
+        switch (entry.mMethod) {
+            case METHOD_STORED:
+                data.get(content);
+                return content;
+            case METHOD_DEFLATED:
+                byte[] compressed = new byte[data.remaining()];
+                data.get(compressed);
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(compressed);
+                    int read = 0;
+                    while (read < content.length && !inflater.finished()) {
+                        int count = inflater.inflate(content, read, content.length - read);
+                        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        read += count;
+                    }
+                    if (read != content.length) {
+                        throw new ZipException("Truncated entry " + entry.mName);
+                    }
+                } catch (DataFormatException e) {
+                    throw new ZipException("Invalid entry " + entry.mName + ": " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+                return content;
+            default:
+                throw new ZipException("Unsupported compression method " + entry.mMethod
+                        + " for " + entry.mName);
+        }
+    }
+
+    /**
+     * Reads a local zip. The end of the zip and the central directory are memory
+     * mapped rather than copied, the file is only open while reading.
+     */
+    private static class FileSource implements Source {
+
+        private final File mFile;
+
+        FileSource(File file) {
+            mFile = file;
+        }
+
+        @Override
+        public long length() {
+            return mFile.length();
+        }
+
+        @Override
+        public ByteBuffer read(long offset, int length) throws IOException {
+            try (FileChannel channel = FileChannel.open(mFile.toPath(),
+                    StandardOpenOption.READ)) {
+                if (length >= MIN_MAP_SIZE) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new ZipException("Truncated zip");
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * HTTP server on the loopback interface serving a fixed body, with support for
+ * "Range: bytes=N-" and "Range: bytes=N-M" requests. Each connection is served
+ * on its own thread and closed after its response.
+ */
+class LocalHttpServer implements Closeable {
+
+    private final ServerSocket mServerSocket;
+    private final byte[] mBody;
+    private final Thread mThread;
+    private final List<Long> mRequestedOffsets = new ArrayList<>();
+
+    LocalHttpServer(int size) throws IOException {
+        mBody = new byte[size];
+        // Random data, like a compressed package
+        new Random(0).nextBytes(mBody);
+        mServerSocket = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+        mThread = new Thread(this::serve, "LocalHttpServer");
+        mThread.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/update.zip";
+    }
+
+    byte[] getBody() {
+        return mBody;
+    }
+
+    /**
+     * Get the offsets the GET requests received so far started from.
+     */
+    synchronized List<Long> getRequestedOffsets() {
+        return new ArrayList<>(mRequestedOffsets);
+    }
+
+    synchronized void clearRequestedOffsets() {
+        mRequestedOffsets.clear();
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                Socket socket = mServerSocket.accept();
+                Thread thread = new Thread(() -> {
+                    try (Socket s = socket) {
+                        respond(s);
+                    } catch (IOException ignored) {
+                        // The client went away
+                    }
+                }, "LocalHttpServer-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ignored) {
+                // The server was closed
+            }
+        }
+    }
+
+    private void respond(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.US_ASCII));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        boolean partial = false;
+        long offset = 0;
+        long end = mBody.length - 1;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            String header = line.toLowerCase(Locale.US);
+            if (header.startsWith("range: bytes=")) {
+                String range = header.substring(13).trim();
+                int dash = range.indexOf('-');
+                partial = true;
+                offset = Long.parseLong(range.substring(0, dash));
+                if (dash < range.length() - 1) {
+                    end = Math.min(end, Long.parseLong(range.substring(dash + 1)));
+                }
+            }
+        }
+        boolean head = requestLine.startsWith("HEAD ");
+        if (!head) {
+            synchronized (this) {
+                mRequestedOffsets.add(offset);
+            }
+        }
+        long length = end - offset + 1;
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 " + (partial ? "206 Partial Content" : "200 OK") + "\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + (partial ? "Content-Range: bytes " + offset + "-" + end + "/"
+                        + mBody.length + "\r\n" : "")
+                + "Accept-Ranges: bytes\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        if (!head) {
+            out.write(mBody, (int) offset, (int) length);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
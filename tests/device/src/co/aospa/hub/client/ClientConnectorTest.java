@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import co.aospa.hub.components.ComponentBuilder;
+import co.aospa.hub.util.Constants;
+import co.aospa.hub.util.FakeBuildProperties;
+
+@RunWith(AndroidJUnit4.class)
+public class ClientConnectorTest {
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        new FakeBuildProperties()
+                .set(Constants.PROP_DEVICE, "guacamole")
+                .install();
+    }
+
+    @After
+    public void tearDown() {
+        FakeBuildProperties.uninstall();
+    }
+
+    @Test
+    public void updatesAreListedPerDevice() {
+        assertEquals(Server.getUrl(mContext) + "updates/guacamole",
+                new ClientConnector(mContext).getComponentUrl(ComponentBuilder.COMPONENT_UPDATES));
+    }
+
+    @Test
+    public void otherComponentsAreShared() {
+        ClientConnector connector = new ClientConnector(mContext);
+        assertEquals(Server.getUrl(mContext) + "changelog",
+                connector.getComponentUrl(ComponentBuilder.COMPONENT_CHANGELOG));
+        assertEquals(Server.getUrl(mContext) + "ota_configuration",
+                connector.getComponentUrl(ComponentBuilder.COMPONENT_CONFIG));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(AndroidJUnit4.class)
+public class SegmentedDownloadClientTest {
+
+    private static final int CHUNK_SIZE = DownloadJournal.CHUNK_SIZE;
+    private static final int TIMEOUT_SECONDS = 30;
+
+    private LocalHttpServer mServer;
+    private File mDestination;
+
+    @Before
+    public void setUp() throws IOException {
+        // The first connection fetches chunks 0 and 1, the second one chunk 2
+        mServer = new LocalHttpServer(3 * CHUNK_SIZE);
+        mDestination = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "segmented.zip");
+        DownloadJournal.delete(mDestination);
+        //noinspection ResultOfMethodCallIgnored
+        mDestination.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        DownloadJournal.delete(mDestination);
+        //noinspection ResultOfMethodCallIgnored
+        mDestination.delete();
+    }
+
+    @Test
+    public void resumeAfterPauseSkipsCommittedChunks() throws Exception {
+        PausingRateLimiter rateLimiter = new PausingRateLimiter();
+        Callback paused = new Callback();
+        rateLimiter.mClient = newClient(paused, rateLimiter);
+        rateLimiter.mClient.start();
+        assertTrue(paused.mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(paused.mCancelled.get());
+
+        DownloadJournal journal = DownloadJournal.load(mDestination);
+        assertNotNull(journal);
+        assertTrue(journal.isCommitted(0));
+        assertFalse(journal.isCommitted(1));
+
+        mServer.clearRequestedOffsets();
+        Callback resumed = new Callback();
+        newClient(resumed, new RateLimiter()).resume();
+        assertTrue(resumed.mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(resumed.mSucceeded.get());
+
+        assertFalse(mServer.getRequestedOffsets().isEmpty());
+        for (long offset : mServer.getRequestedOffsets()) {
+            assertTrue("Fetched again from " + offset, offset >= CHUNK_SIZE);
+        }
+        assertArrayEquals(mServer.getBody(), Files.readAllBytes(mDestination.toPath()));
+    }
+
+    private DownloadClient newClient(Callback callback, RateLimiter rateLimiter)
+            throws IOException {
+        return new DownloadClient.Builder()
+                .setUrl(mServer.getUrl())
+                .setDestination(mDestination)
+                .setMaxConnections(2)
+                .setRateLimiter(rateLimiter)
+                .setDownloadCallback(callback)
+                .build();
+    }
+
+    /**
+     * Pauses the download from the connection that reads past the first chunk,
+     * right after it was written and before the journal is flushed on schedule.
+     */
+    private static class PausingRateLimiter extends RateLimiter {
+        private final ThreadLocal<long[]> mBytesRead = ThreadLocal.withInitial(() -> new long[1]);
+        private final AtomicBoolean mPaused = new AtomicBoolean();
+        volatile DownloadClient mClient;
+
+        @Override
+        long acquire(int bytes) throws InterruptedIOException {
+            long[] bytesRead = mBytesRead.get();
+            bytesRead[0] += bytes;
+            if (bytesRead[0] > CHUNK_SIZE && mPaused.compareAndSet(false, true)) {
+                mClient.cancel();
+            }
+            return super.acquire(bytes);
+        }
+    }
+
+    private static class Callback implements DownloadClient.DownloadCallback {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        final AtomicBoolean mSucceeded = new AtomicBoolean();
+        final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        @Override
+        public void onResponse(int statusCode, String url, DownloadClient.Headers headers) {
+        }
+
+        @Override
+        public void onSuccess(File destination, int task) {
+            mSucceeded.set(true);
+            mDone.countDown();
+        }
+
+        @Override
+        public void onFailure(boolean cancelled) {
+            mCancelled.set(cancelled);
+            mDone.countDown();
+        }
+    }
+}
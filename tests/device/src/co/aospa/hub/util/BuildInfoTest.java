@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class BuildInfoTest {
+
+    @After
+    public void tearDown() {
+        FakeBuildProperties.uninstall();
+    }
+
+    @Test
+    public void parsesProperties() {
+        new FakeBuildProperties()
+                .set(Constants.PROP_AB_DEVICE, "true")
+                .set(Constants.PROP_ANDROID_VERSION, "14")
+                .set(Constants.PROP_VERSION_MINOR, "1.10")
+                .set(Constants.PROP_BUILD_DATE, "1700000000")
+                .set(Constants.PROP_DEVICE, "guacamole")
+                .install();
+        BuildInfo buildInfo = BuildInfo.get();
+        assertTrue(buildInfo.isABDevice());
+        assertEquals(SemanticBuildVersion.parse("14.0"), buildInfo.getAndroidVersion());
+        assertEquals("1.10", buildInfo.getVersionNumber());
+        assertTrue(buildInfo.getSemanticVersionNumber()
+                .isNewerThan(SemanticBuildVersion.parse("1.9")));
+        assertEquals(1700000000L, buildInfo.getTimestamp());
+        assertEquals("guacamole", buildInfo.getDevice());
+    }
+
+    @Test
+    public void formatsSecurityPatchLevel() {
+        new FakeBuildProperties()
+                .set(Constants.PROP_ANDROID_SPL, "2024-01-05")
+                .install();
+        assertEquals("2024-01-05", BuildInfo.get().getRawAndroidSpl());
+        assertEquals("January 5, 2024", BuildInfo.get().getAndroidSpl());
+    }
+
+    @Test
+    public void keepsMalformedValues() {
+        new FakeBuildProperties()
+                .set(Constants.PROP_AB_DEVICE, "maybe")
+                .set(Constants.PROP_ANDROID_SPL, "soon")
+                .set(Constants.PROP_BUILD_DATE, "yesterday")
+                .install();
+        BuildInfo buildInfo = BuildInfo.get();
+        assertFalse(buildInfo.isABDevice());
+        assertEquals("soon", buildInfo.getAndroidSpl());
+        assertEquals(0, buildInfo.getTimestamp());
+        assertFalse(buildInfo.getAndroidVersion().isValid());
+    }
+
+    @Test
+    public void takesOneSnapshotPerSource() {
+        new FakeBuildProperties().install();
+        BuildInfo first = BuildInfo.get();
+        assertSame(first, BuildInfo.get());
+        new FakeBuildProperties().install();
+        assertNotSame(first, BuildInfo.get());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import android.os.SystemProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Build properties for tests, installed as the source of BuildInfo. Properties
+ * that weren't set read as empty, like missing system properties.
+ */
+public class FakeBuildProperties implements BuildInfo.PropertySource {
+
+    private final Map<String, String> mProperties = new HashMap<>();
+
+    public FakeBuildProperties set(String key, String value) {
+        mProperties.put(key, value);
+        return this;
+    }
+
+    @Override
+    public String get(String key) {
+        String value = mProperties.get(key);
+        return value != null ? value : "";
+    }
+
+    public void install() {
+        BuildInfo.setPropertySource(this);
+    }
+
+    public static void uninstall() {
+        BuildInfo.setPropertySource(SystemProperties::get);
+    }
+}
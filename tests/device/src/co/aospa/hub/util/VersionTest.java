@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import co.aospa.hub.components.UpdateComponent;
+
+/**
+ * Version checks against a running build faked through BuildInfo.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VersionTest {
+
+    private static final long BUILD_DATE = 1700000000L;
+
+    @Before
+    public void setUp() {
+        new FakeBuildProperties()
+                .set(Constants.PROP_ANDROID_VERSION, "14")
+                .set(Constants.PROP_VERSION_MINOR, "1.9")
+                .set(Constants.PROP_BUILD_DATE, String.valueOf(BUILD_DATE))
+                .set(Constants.PROP_BUILD_TYPE, "Release")
+                .install();
+    }
+
+    @After
+    public void tearDown() {
+        FakeBuildProperties.uninstall();
+    }
+
+    private static UpdateComponent build(String androidVersion, String versionNumber,
+                                         long timestamp) {
+        UpdateComponent component = new UpdateComponent();
+        component.setFileName("aospa-" + versionNumber + ".zip");
+        component.setAndroidVersion(androidVersion);
+        component.setVersionNumber(versionNumber);
+        component.setTimestamp(timestamp);
+        return component;
+    }
+
+    @Test
+    public void newerVersionNumberIsAnUpdate() {
+        // A float comparison would take 1.10 for older than 1.9
+        assertTrue(new Version(build("14", "1.10", BUILD_DATE)).isUpdateAvailable());
+    }
+
+    @Test
+    public void newerBuildDateIsAnUpdate() {
+        assertTrue(new Version(build("14", "1.9", BUILD_DATE + 1)).isUpdateAvailable());
+    }
+
+    @Test
+    public void runningBuildIsNotAnUpdate() {
+        assertFalse(new Version(build("14", "1.9", BUILD_DATE)).isUpdateAvailable());
+        assertFalse(new Version(build("14.0", "1.9.0", BUILD_DATE)).isUpdateAvailable());
+    }
+
+    @Test
+    public void olderBuildIsNotAnUpdate() {
+        assertFalse(new Version(build("14", "1.8", BUILD_DATE - 1)).isUpdateAvailable());
+        assertFalse(new Version(null).isUpdateAvailable());
+    }
+
+    @Test
+    public void detectsAndroidUpgrades() {
+        assertTrue(new Version(build("15", "1.0", BUILD_DATE)).isAndroidUpgrade());
+        assertFalse(new Version(build("14.0", "2.0", BUILD_DATE)).isAndroidUpgrade());
+        assertFalse(new Version(build("13", "2.0", BUILD_DATE)).isAndroidUpgrade());
+    }
+
+    @Test
+    public void picksBuildsOfTheRunningChannel() {
+        UpdateComponent older = build("14", "1.9", BUILD_DATE);
+        UpdateComponent newer = build("14", "1.10", BUILD_DATE);
+        UpdateComponent beta = build("15", "1.0", BUILD_DATE);
+        beta.setChannel("Beta");
+        String channel = Version.getBuildType();
+        assertTrue(Version.isBetterCandidate(older, null, channel));
+        assertTrue(Version.isBetterCandidate(newer, older, channel));
+        assertFalse(Version.isBetterCandidate(older, newer, channel));
+        assertFalse(Version.isBetterCandidate(beta, older, channel));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Download of a package from a loopback server, through the 8 KiB stream loop
+ * followed by a second pass to hash the package that the client used to have,
+ * and through the current client, which writes a FileChannel and hashes while
+ * downloading. Besides the time per download, the CPU time per GB is reported.
+ */
+public class DownloadBenchmark {
+
+    private static final int PACKAGE_SIZE = 64 * 1024 * 1024;
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final DownloadClient.ProgressListener mProgressListener =
+            new DownloadClient.ProgressListener() {
+        @Override
+        public void update(long bytesRead, long contentLength, long speed, long eta,
+                           boolean done) {
+        }
+
+        @Override
+        public void updateTransferStats(int bufferSize, long syscallRate) {
+        }
+    };
+
+    private LocalHttpServer mServer;
+    private File mDestination;
+    private String mExpectedDigest;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LocalHttpServer(PACKAGE_SIZE);
+        mDestination = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "benchmark.zip");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        mExpectedDigest = toHex(digest.digest(mServer.getBody()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        //noinspection ResultOfMethodCallIgnored
+        mDestination.delete();
+    }
+
+    @Test
+    public void streamLoopThenHash() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        long iterations = 0;
+        final long cpuStart = Process.getElapsedCpuTime();
+        while (state.keepRunning()) {
+            downloadWithStreamLoop();
+            assertEquals(mExpectedDigest, hashFile());
+            iterations++;
+        }
+        reportCpuPerGb("streamLoopThenHash", Process.getElapsedCpuTime() - cpuStart, iterations);
+    }
+
+    @Test
+    public void channelWithStreamingDigest() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        long iterations = 0;
+        final long cpuStart = Process.getElapsedCpuTime();
+        while (state.keepRunning()) {
+            assertEquals(mExpectedDigest, downloadWithClient());
+            iterations++;
+        }
+        reportCpuPerGb("channelWithStreamingDigest", Process.getElapsedCpuTime() - cpuStart,
+                iterations);
+    }
+
+    // The download loop of the client before it moved to a FileChannel, which
+    // updated the speed and reported progress after every read
+    private void downloadWithStreamLoop() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mServer.getUrl())
+                .openConnection();
+        try (InputStream inputStream = connection.getInputStream();
+             OutputStream outputStream = new FileOutputStream(mDestination)) {
+            final long totalBytes = connection.getContentLength();
+            long totalBytesRead = 0;
+            long curSampleBytes = 0;
+            long lastMillis = 0;
+            long speed = -1;
+            long eta = -1;
+            byte[] b = new byte[8192];
+            int count;
+            while ((count = inputStream.read(b)) > 0) {
+                outputStream.write(b, 0, count);
+                totalBytesRead += count;
+                final long millis = SystemClock.elapsedRealtime();
+                final long delta = millis - lastMillis;
+                if (delta > 500) {
+                    final long curSpeed = ((totalBytesRead - curSampleBytes) * 1000) / delta;
+                    speed = speed == -1 ? curSpeed : ((speed * 3) + curSpeed) / 4;
+                    lastMillis = millis;
+                    curSampleBytes = totalBytesRead;
+                }
+                if (speed > 0) {
+                    eta = (totalBytes - totalBytesRead) / speed;
+                }
+                mProgressListener.update(totalBytesRead, totalBytes, speed, eta, false);
+            }
+            mProgressListener.update(totalBytesRead, totalBytes, speed, eta, true);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String hashFile() throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream inputStream = new FileInputStream(mDestination)) {
+            byte[] b = new byte[8192];
+            int count;
+            while ((count = inputStream.read(b)) > 0) {
+                digest.update(b, 0, count);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private String downloadWithClient() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean succeeded = new AtomicBoolean();
+        DownloadClient client = new DownloadClient.Builder()
+                .setUrl(mServer.getUrl())
+                .setDestination(mDestination)
+                .setComputeDigest(true)
+                .setProgressListener(mProgressListener)
+                .setDownloadCallback(new DownloadClient.DownloadCallback() {
+                    @Override
+                    public void onResponse(int statusCode, String url,
+                                           DownloadClient.Headers headers) {
+                    }
+
+                    @Override
+                    public void onSuccess(File destination, int task) {
+                        succeeded.set(true);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(boolean cancelled) {
+                        done.countDown();
+                    }
+                })
+                .build();
+        client.start();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertTrue(succeeded.get());
+        return client.getDigest();
+    }
+
+    private void reportCpuPerGb(String name, long cpuMs, long iterations) {
+        Bundle status = new Bundle();
+        status.putLong(name + "_cpuMsPerGb", cpuMs * GB / Math.max(1, iterations * PACKAGE_SIZE));
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.components;
+
+import static co.aospa.hub.client.ClientConnector.TaskType.UPDATES;
+
+import static org.junit.Assert.assertNotNull;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Parsing of an updates feed listing many builds, each with a few incremental
+ * packages, with the JsonReader based builder and with the JSONObject DOM it
+ * replaced. The benchmark rule reports the time and the allocations per parse.
+ */
+public class ComponentBuilderBenchmark {
+
+    private static final int BUILDS = 500;
+    private static final int DELTAS_PER_BUILD = 3;
+    private static final String SHA256 =
+            "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private File mFeed;
+
+    @Before
+    public void setUp() throws IOException {
+        mFeed = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "updates_benchmark.json");
+        try (Writer writer = new FileWriter(mFeed)) {
+            writer.write("{\"updates\":[");
+            for (int i = 0; i < BUILDS; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeBuild(writer, i);
+            }
+            writer.write("]}");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFeed.delete();
+    }
+
+    private static void writeBuild(Writer writer, int i) throws IOException {
+        writer.write("{\"id\":\"" + i + "\",\"version\":\"Uvite\",\"version_code\":\"1."
+                + i + "\",\"build_type\":\"Release\",\"filename\":\"aospa-" + i + ".zip\","
+                + "\"datetime\":" + (1700000000L + i) + ",\"size\":2147483648,"
+                + "\"url\":\"https://example.com/aospa-" + i + ".zip\","
+                + "\"android_version\":\"14\",\"android_spl\":\"2024-01-05\","
+                + "\"changelog_device\":\"Fixed things on build " + i + "\","
+                + "\"sha256\":\"" + SHA256 + "\",\"incrementals\":[");
+        for (int j = 0; j < DELTAS_PER_BUILD; j++) {
+            if (j > 0) {
+                writer.write(',');
+            }
+            writer.write("{\"source_fingerprint\":\"aospa/device/device:14/" + j
+                    + "/user/release-keys\",\"filename\":\"incremental-" + i + "-" + j
+                    + ".zip\",\"size\":104857600,\"url\":\"https://example.com/incremental-"
+                    + i + "-" + j + ".zip\"}");
+        }
+        writer.write("]}");
+    }
+
+    @Test
+    public void jsonReader() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            assertNotNull(ComponentBuilder.buildComponent(mFeed, UPDATES));
+        }
+    }
+
+    @Test
+    public void jsonObject() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            assertNotNull(buildWithJsonObject(mFeed));
+        }
+    }
+
+    // The builder before it moved to JsonReader: the whole file is read into a
+    // String and a DOM, then every entry is converted
+    private static UpdateComponent buildWithJsonObject(File data) throws IOException,
+            JSONException {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new FileReader(data))) {
+            for (String line; (line = br.readLine()) != null;) {
+                sb.append(line);
+            }
+        }
+        JSONArray builds = new JSONObject(sb.toString()).getJSONArray("updates");
+        UpdateComponent component = null;
+        for (int i = 0; i < builds.length(); i++) {
+            JSONObject object = builds.getJSONObject(i);
+            component = new UpdateComponent();
+            component.setFileName(object.getString("filename"));
+            component.setTimestamp(object.getLong("datetime"));
+            component.setFileSize(object.getLong("size"));
+            component.setDownloadUrl(object.getString("url"));
+            component.setAndroidVersion(object.getString("android_version"));
+            component.setAndroidSpl(object.getString("android_spl"));
+            component.setDeviceChangelog(object.getString("changelog_device"));
+            component.setVersion(object.getString("version"));
+            component.setVersionNumber(object.getString("version_code"));
+            component.setBuildType(object.getString("build_type"));
+            component.setId(object.getString("id"));
+        }
+        return component;
+    }
+}
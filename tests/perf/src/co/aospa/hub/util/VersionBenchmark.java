@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import android.os.SystemProperties;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import co.aospa.hub.components.UpdateComponent;
+
+/**
+ * The check whether a build is newer than the running one, with the versions
+ * parsed once into SemanticBuildVersion and the properties read from BuildInfo,
+ * and with the Float.parseFloat() and SystemProperties reads it replaced.
+ */
+public class VersionBenchmark {
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private UpdateComponent mComponent;
+    // Keeps the results alive
+    private boolean mNewer;
+
+    @Before
+    public void setUp() {
+        // An older build, so every part of the check runs
+        mComponent = new UpdateComponent();
+        mComponent.setAndroidVersion("1");
+        mComponent.setVersionNumber("0");
+        mComponent.setTimestamp(0);
+    }
+
+    @Test
+    public void semanticBuildVersion() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            BuildInfo buildInfo = BuildInfo.get();
+            boolean newer = mComponent.getSemanticAndroidVersion()
+                    .isNewerThan(buildInfo.getAndroidVersion())
+                    || mComponent.getTimestamp() > buildInfo.getTimestamp()
+                    || mComponent.getSemanticVersionNumber()
+                            .isNewerThan(buildInfo.getSemanticVersionNumber());
+            mNewer |= newer;
+        }
+    }
+
+    // The check before SemanticBuildVersion, the properties fall back to zero so
+    // it runs on builds that don't set them
+    @Test
+    public void parseFloat() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            boolean newer = Float.parseFloat(mComponent.getAndroidVersion())
+                    > Float.parseFloat(SystemProperties.get(Constants.PROP_ANDROID_VERSION, "0"))
+                    || mComponent.getTimestamp()
+                            > Long.parseLong(SystemProperties.get(Constants.PROP_BUILD_DATE, "0"))
+                    || Float.parseFloat(mComponent.getVersionNumber())
+                            > Float.parseFloat(SystemProperties.get(Constants.PROP_VERSION_MINOR,
+                                    "0"));
+            mNewer |= newer;
+        }
+    }
+}
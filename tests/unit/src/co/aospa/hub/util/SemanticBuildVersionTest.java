@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 Paranoid Android
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.aospa.hub.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SemanticBuildVersionTest {
+
+    private static SemanticBuildVersion v(String version) {
+        return SemanticBuildVersion.parse(version);
+    }
+
+    @Test
+    public void comparesPartsAsNumbers() {
+        assertTrue(v("14.10").isNewerThan(v("14.9")));
+        assertFalse(v("14.9").isNewerThan(v("14.10")));
+        assertTrue(v("14.0.1").isNewerThan(v("14")));
+        assertTrue(v("2").isNewerThan(v("1.99.99")));
+    }
+
+    @Test
+    public void missingPartsAreZero() {
+        assertEquals(0, v("14").compareTo(v("14.0")));
+        assertEquals(v("14"), v("14.0"));
+        assertEquals(v("14").hashCode(), v("14.0.0").hashCode());
+        assertNotEquals(v("14"), v("14.0.1"));
+    }
+
+    @Test
+    public void ignoresSuffixes() {
+        assertEquals(v("14.1"), v("14.1-beta"));
+        assertEquals(v("14.1"), v("14.1 (QPR1)"));
+        assertEquals(v("14"), v("14."));
+        assertEquals("14.1-beta", v("14.1-beta").toString());
+    }
+
+    @Test
+    public void preReleaseIsNotNewerThanRelease() {
+        assertFalse(v("14.1-rc2").isNewerThan(v("14.1")));
+        assertFalse(v("14.1").isNewerThan(v("14.1-rc2")));
+        assertTrue(v("14.2-alpha").isNewerThan(v("14.1")));
+    }
+
+    @Test
+    public void malformedVersionsAreInvalid() {
+        assertSame(SemanticBuildVersion.INVALID, v(null));
+        assertFalse(v("").isValid());
+        assertFalse(v("abc").isValid());
+        assertFalse(v("v14").isValid());
+        assertFalse(v(".1").isValid());
+        assertFalse(v("-1").isValid());
+        assertEquals("invalid", v(null).toString());
+    }
+
+    @Test
+    public void malformedVersionsKeepTheirLeadingNumbers() {
+        assertEquals(v("14"), v("14..1"));
+        assertEquals(v("14.2"), v("14.2.x"));
+    }
+
+    @Test
+    public void invalidVersionsAreOlderThanValidOnes() {
+        assertTrue(v("0").isNewerThan(v("abc")));
+        assertFalse(v("abc").isNewerThan(v("0")));
+        assertEquals(0, v("abc").compareTo(v(null)));
+        assertEquals(v("abc"), v(""));
+    }
+
+    @Test
+    public void clampsHugeParts() {
+        assertTrue(v("99999999999").isValid());
+        assertEquals(v("99999999999"), v("99999999998"));
+        assertTrue(v("99999999999").isNewerThan(v("2147483646")));
+    }
+
+    @Test
+    public void growsPastFourParts() {
+        assertTrue(v("1.2.3.4.5.6").isNewerThan(v("1.2.3.4.5")));
+        assertEquals(v("1.2.3.4.5.0"), v("1.2.3.4.5"));
+    }
+}